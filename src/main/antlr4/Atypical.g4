@@ -17,7 +17,8 @@ moduleImplDeclaration: IMPL typeName LBRACE implMemberDeclaration* RBRACE; //Sho
                                                                            // given trait for the current module
 
 //Struct
-structDeclaration: STRUCT typeName LBRACE structMemberDeclaration* RBRACE;
+structDeclaration: COLUMNAR? STRUCT typeName LBRACE structMemberDeclaration* RBRACE; //Arrays of columnar structs are
+                                                                                         // stored as one array per field
 structMemberDeclaration: typeName COLON memberName SEMICOLON;
 
 //Trait
@@ -50,18 +51,28 @@ methodReturnTypeDeclaration: COLON typeName;
 statement:
       localVariableDeclarationExpression SEMICOLON
     | asignLocalVariableStatement SEMICOLON
+    | incrementStatement SEMICOLON
     | expression SEMICOLON
     | returnStatement SEMICOLON
     | ifStatement
-    | whileStatement;
+    | whileStatement
+    | forStatement;
 
 localVariableDeclarationExpression: typeName COLON variableName ASSIGN expression;
 asignLocalVariableStatement: variableName ASSIGN expression;
+incrementStatement: variableName (INC | DEC);
 returnStatement: RETURN expression?;
 ifStatement: IF LPAREN expression RPAREN LBRACE statement* RBRACE elseIfStatement* elseStatement?;
 elseIfStatement: ELSE IF LPAREN expression RPAREN LBRACE statement* RBRACE;
 elseStatement: ELSE LBRACE statement* RBRACE;
 whileStatement: WHILE LPAREN expression RPAREN LBRACE statement* RBRACE;
+forStatement
+    : FOR LPAREN typeName COLON variableName IN from=expression (RANGE to=expression)? RPAREN LBRACE statement* RBRACE //a..b excludes b,
+                                                                                   // without a range every element of an array or Iterable
+    | FOR LPAREN forInit? SEMICOLON expression? SEMICOLON forUpdate? RPAREN LBRACE statement* RBRACE
+    ;
+forInit: localVariableDeclarationExpression | asignLocalVariableStatement;
+forUpdate: incrementStatement | asignLocalVariableStatement | expression;
 
 // =========================
 // Expression (Simplified Integration Tip)
@@ -97,6 +108,7 @@ primary
     : literal
     | memberOrVariableName
     | structInitializerExpression
+    | arrayAllocationExpression
     | castExpression
     | parenthesesExpression
     ;
@@ -106,6 +118,7 @@ primary
 // =========================
 
 structInitializerExpression: typeName LBRACE argList? RBRACE;
+arrayAllocationExpression: arrayTypeName LPAREN expression RPAREN; //int[](n) allocates an array of n zeroed elements
 parenthesesExpression: LPAREN expression RPAREN;
 castExpression: LPAREN typeName RPAREN expression;
 argList: expression (COMMA expression)*;
@@ -123,17 +136,21 @@ literal
 
 //Identifiers
 typeName: identifier (DOT identifier)* ARRAY_TYPE*;
-identifier: LETTER LETTER_OR_DIGIT*;
-memberName: LETTER LETTER_OR_DIGIT*;
-variableName: LETTER LETTER_OR_DIGIT*;
-memberOrVariableName: LETTER LETTER_OR_DIGIT*;
+arrayTypeName: identifier (DOT identifier)* ARRAY_TYPE+;
+//in is only a keyword in for loops, it is still a valid name everywhere else (System.in, a local called in)
+identifier: LETTER LETTER_OR_DIGIT* | IN;
+memberName: LETTER LETTER_OR_DIGIT* | IN;
+variableName: LETTER LETTER_OR_DIGIT* | IN;
+memberOrVariableName: LETTER LETTER_OR_DIGIT* | IN;
 
 //Keywords
 MODULE: 'module';
 STRUCT: 'struct';
+COLUMNAR: 'columnar';
 TRAIT: 'trait';
 IMPL: 'impl';
 FOR: 'for';
+IN: 'in';
 IMPORT: 'import';
 AS: 'as';
 RETURN: 'return';
@@ -154,6 +171,7 @@ SEMICOLON: ';';
 ARRAY_TYPE: '[]';
 COMMA: ',';
 DOT: '.';
+RANGE: '..';
 SINGLE_QUOTE: '\'';
 DOUBLE_QUOTE: '"';
 
@@ -176,7 +194,8 @@ INC: '++';
 DEC: '--';
 
 //REGEX
-NUMBER: [0-9]+;
+//Optionally with a fraction and one of the suffixes l (long), f (float) and d (double)
+NUMBER: [0-9]+ ('.' [0-9]+)? [lLfFdD]?;
 LETTER: [a-zA-Z]+;
 LETTER_OR_DIGIT: LETTER | NUMBER;
 
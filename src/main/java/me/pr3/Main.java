@@ -1,32 +1,94 @@
 package me.pr3;
 
+import me.pr3.atypical.cli.Build;
+import me.pr3.atypical.cli.BuildRequest;
 import me.pr3.atypical.compiler.StructureCompiler;
+import me.pr3.atypical.daemon.CompileDaemon;
+import me.pr3.atypical.daemon.DaemonAddress;
+import me.pr3.atypical.daemon.DaemonClient;
+import me.pr3.atypical.repl.Repl;
+import me.pr3.atypical.run.Runner;
 
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
+ * Usage:
+ * <pre>
+ * Main [-d outputDir|output.jar] [--incremental cacheDir] [--cache bytecodeCacheDir] [-O0|-O1|-O2] [-j threads] (files|directories|globs)...
+ * Main --run [--main className] (files|directories|globs)... [-- program arguments...]
+ * Main --repl
+ * Main --daemon socketPath
+ * Main --connect socketPath [--shutdown | --status | build options and files...]
+ * </pre>
+ * Without any files ./example/LinkedList.atp is compiled into ./example/
+ *
  * @author ${USER}
  */
 public class Main {
-    public static void main(String[] args) throws IOException {
-       List<String> lines = Files.readAllLines(Path.of("./example/LinkedList.atp"));
-       String input = String.join("\n", lines);
-        StructureCompiler compiler = new StructureCompiler(Map.of("LinkedList.atp",input));
-        Map<String, byte[]> result = compiler.compile();
-
-        for (Map.Entry<String, byte[]> entry : result.entrySet()) {
-            String fileName = entry.getKey();
-            Path outputPath = Path.of("./example/" + fileName + ".class");
-            Files.deleteIfExists(outputPath);
-            Files.createDirectories(outputPath.getParent());
-            Files.createFile(outputPath);
-            Files.write(outputPath, entry.getValue(), StandardOpenOption.WRITE);
+    public static void main(String[] args) throws Throwable {
+        List<String> arguments = Arrays.asList(args);
+        if (!arguments.isEmpty() && arguments.get(0).equals("--repl")) {
+            Repl.main(new String[0]);
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals("--run")) {
+            run(arguments.subList(1, arguments.size()));
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals("--daemon")) {
+            if (arguments.size() != 2) exitWithUsage("Main --daemon socketPath");
+            new CompileDaemon(DaemonAddress.parse(arguments.get(1))).run();
+            return;
+        }
+        if (!arguments.isEmpty() && arguments.get(0).equals("--connect")) {
+            if (arguments.size() < 2) exitWithUsage("Main --connect socketPath [--shutdown | --status | build options and files...]");
+            List<String> rest = arguments.subList(2, arguments.size());
+            List<String> request = new ArrayList<>();
+            if (rest.equals(List.of("--shutdown"))) {
+                request.add("shutdown");
+            } else if (rest.equals(List.of("--status"))) {
+                request.add("status");
+            } else {
+                request.add("build");
+                //The daemon runs in another directory
+                request.addAll(BuildRequest.parse(rest).toAbsolute().toArguments());
+            }
+            CompileDaemon.Response response = DaemonClient.send(DaemonAddress.parse(arguments.get(1)), request);
+            if (response.ok()) {
+                System.out.println(response.message());
+            } else {
+                System.err.println(response.message());
+                System.exit(1);
+            }
+            return;
         }
 
+        System.out.println(Build.run(BuildRequest.parse(arguments)));
+    }
+
+    private static void exitWithUsage(String usage) {
+        System.err.println("Usage: " + usage);
+        System.exit(1);
+    }
+
+    private static void run(List<String> arguments) throws Throwable {
+        String mainClass = null;
+        List<Path> inputs = new ArrayList<>();
+        String[] programArguments = new String[0];
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i).equals("--")) {
+                programArguments = arguments.subList(i + 1, arguments.size()).toArray(String[]::new);
+                break;
+            }
+            if (arguments.get(i).equals("--main")) {
+                mainClass = arguments.get(++i);
+            } else {
+                inputs.add(Path.of(arguments.get(i)));
+            }
+        }
+        Map<String, CharSequence> sources = Build.readSources(inputs);
+        Map<String, byte[]> classes = new StructureCompiler(sources).compile();
+        Runner.run(classes, mainClass != null ? mainClass : Runner.findMainClass(sources, classes), programArguments);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+package me.pr3.atypical.cli;
+
+import me.pr3.atypical.compiler.CompilerOptions;
+import me.pr3.atypical.compiler.StructureCompiler;
+import me.pr3.atypical.compiler.incremental.BuildState;
+import me.pr3.atypical.compiler.incremental.BytecodeCache;
+import me.pr3.atypical.compiler.incremental.IncrementalCompiler;
+import me.pr3.atypical.compiler.util.ClassRepository.ClassFileSource;
+import me.pr3.atypical.io.ClassOutput;
+import me.pr3.atypical.io.SourceFiles;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a {@link BuildRequest}: reads the input files, compiles them and writes the classes to the output directory
+ * or jar.
+ *
+ * @author tim
+ */
+public class Build {
+
+    /**
+     * @return a one line summary of the build
+     */
+    public static String run(BuildRequest request) throws IOException {
+        long start = System.nanoTime();
+        if (request.incrementalDir() != null && ClassOutput.isJar(request.outputDir())) {
+            throw new IllegalArgumentException("Incremental builds need an output directory, not a jar: " + request.outputDir());
+        }
+        Map<String, CharSequence> inputs = readSources(request.files());
+        BytecodeCache bytecodeCache = request.bytecodeCacheDir() == null ? null : new BytecodeCache(request.bytecodeCacheDir());
+
+        CompilerOptions options = request.toCompilerOptions();
+        //The pool only lives for this build, its threads must not keep a finished compiler process alive
+        ExecutorService executor = request.jobs() > 1 ? Executors.newFixedThreadPool(request.jobs()) : null;
+        options.executor = executor;
+        try {
+            return run(request, inputs, bytecodeCache, options, start);
+        } finally {
+            if (executor != null) executor.shutdown();
+        }
+    }
+
+    private static String run(BuildRequest request, Map<String, CharSequence> inputs, BytecodeCache bytecodeCache,
+                              CompilerOptions options, long start) throws IOException {
+        int compiledFiles = inputs.size();
+        Map<String, byte[]> classes;
+        Set<String> deletedClasses = Set.of();
+        BuildState state = null;
+        if (request.incrementalDir() != null) {
+            BuildState previous = BuildState.load(request.incrementalDir());
+            IncrementalCompiler incrementalCompiler = new IncrementalCompiler(options);
+            incrementalCompiler.bytecodeCache = bytecodeCache;
+            IncrementalCompiler.Result result = incrementalCompiler.compile(inputs, previous, ClassFileSource.ofDirectory(request.outputDir()));
+            classes = result.classes();
+            deletedClasses = result.deletedClasses();
+            state = result.state();
+            compiledFiles = result.compiledFiles().size();
+        } else {
+            StructureCompiler compiler = new StructureCompiler(inputs, options);
+            compiler.bytecodeCache = bytecodeCache;
+            classes = compiler.compile();
+        }
+
+        try (ClassOutput output = ClassOutput.open(request.outputDir())) {
+            for (String deletedClass : deletedClasses) {
+                output.delete(deletedClass);
+            }
+            //Sorted so jars come out the same for the same classes
+            for (String className : new TreeSet<>(classes.keySet())) {
+                output.write(className, classes.get(className));
+            }
+        }
+        //Only persist the state once the classes it describes are written
+        if (state != null) state.save(request.incrementalDir());
+        return "Compiled " + compiledFiles + " of " + inputs.size() + " files in " + (System.nanoTime() - start) / 1_000_000 + "ms";
+    }
+
+    /**
+     * Reads the sources of the given files, directories or globs by file name.
+     */
+    public static Map<String, CharSequence> readSources(List<Path> inputs) throws IOException {
+        Map<String, CharSequence> sources = new LinkedHashMap<>();
+        for (Path file : SourceFiles.expand(inputs)) {
+            //The file name decides the name of the class for global methods, so it has to be unique
+            if (sources.put(file.getFileName().toString(), SourceFiles.read(file)) != null) {
+                throw new IllegalArgumentException("Duplicate source file name: " + file);
+            }
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,98 @@
+package me.pr3.atypical.cli;
+
+import me.pr3.atypical.compiler.CompilerOptions;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single compilation as given on the command line:
+ * <code>[-d outputDir|output.jar] [--incremental cacheDir] [--cache bytecodeCacheDir] [-O0|-O1|-O2] [-j threads] (files|directories|globs)...</code>
+ *
+ * @param files             source files, directories or globs, see {@link me.pr3.atypical.io.SourceFiles#expand}
+ * @param outputDir         output directory, or the jar to write if it ends with .jar
+ * @param incrementalDir    directory of the incremental build state, null for a full build
+ * @param bytecodeCacheDir  directory of the bytecode cache, null if the cache is not used
+ * @param optimizationLevel see {@link CompilerOptions#optimizationLevel}
+ * @param jobs              number of threads files are parsed and compiled on, 1 compiles on the calling thread
+ * @author tim
+ */
+public record BuildRequest(List<Path> files, Path outputDir, Path incrementalDir, Path bytecodeCacheDir, int optimizationLevel, int jobs) {
+
+    /**
+     * Parses the build options, every argument that is not an option is an input.
+     * Without any files ./example/LinkedList.atp is compiled into ./example/
+     */
+    public static BuildRequest parse(List<String> args) {
+        Path outputDir = Path.of("./example/");
+        Path incrementalDir = null;
+        Path bytecodeCacheDir = null;
+        int optimizationLevel = 0;
+        int jobs = 1;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            switch (args.get(i)) {
+                case "-d" -> outputDir = Path.of(getValue(args, ++i));
+                case "--incremental" -> incrementalDir = Path.of(getValue(args, ++i));
+                case "--cache" -> bytecodeCacheDir = Path.of(getValue(args, ++i));
+                case "-O0", "-O1", "-O2" -> optimizationLevel = args.get(i).charAt(2) - '0';
+                case "-j" -> jobs = parseJobs(getValue(args, ++i));
+                default -> files.add(Path.of(args.get(i)));
+            }
+        }
+        if (files.isEmpty()) files.add(Path.of("./example/LinkedList.atp"));
+        return new BuildRequest(files, outputDir, incrementalDir, bytecodeCacheDir, optimizationLevel, jobs);
+    }
+
+    /**
+     * @return the request with all paths resolved against the current directory, so it can be run by another process
+     */
+    public BuildRequest toAbsolute() {
+        return new BuildRequest(files.stream().map(Path::toAbsolutePath).toList(),
+                outputDir.toAbsolutePath(),
+                incrementalDir == null ? null : incrementalDir.toAbsolutePath(),
+                bytecodeCacheDir == null ? null : bytecodeCacheDir.toAbsolutePath(),
+                optimizationLevel,
+                jobs);
+    }
+
+    /**
+     * @return the arguments {@link #parse} turns into this request again
+     */
+    public List<String> toArguments() {
+        List<String> args = new ArrayList<>(List.of("-d", outputDir.toString()));
+        if (incrementalDir != null) args.addAll(List.of("--incremental", incrementalDir.toString()));
+        if (bytecodeCacheDir != null) args.addAll(List.of("--cache", bytecodeCacheDir.toString()));
+        args.addAll(List.of("-O" + optimizationLevel, "-j", String.valueOf(jobs)));
+        for (Path file : files) {
+            args.add(file.toString());
+        }
+        return args;
+    }
+
+    /**
+     * @return the compiler options this build is run with, without an executor, see {@link Build#run}
+     */
+    public CompilerOptions toCompilerOptions() {
+        CompilerOptions options = new CompilerOptions();
+        options.optimizationLevel = optimizationLevel;
+        return options;
+    }
+
+    private static int parseJobs(String value) {
+        try {
+            int jobs = Integer.parseInt(value);
+            if (jobs > 0) return jobs;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("-j needs a positive number of threads: " + value);
+    }
+
+    private static String getValue(List<String> args, int index) {
+        if (index >= args.size()) {
+            throw new IllegalArgumentException("Missing value for option " + args.get(index - 1));
+        }
+        return args.get(index);
+    }
+}
@@ -0,0 +1,148 @@
+package me.pr3.atypical.compiler;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the container class that replaces arrays of a columnar struct. <code>columnar struct Point { int: x; int: y; }</code>
+ * turns every <code>Point[]</code> into
+ * <pre>
+ * class Point$Columns {
+ *   int length;
+ *   int[] x;
+ *   int[] y;
+ *
+ *   Point$Columns(int length);
+ *   Point get(int index);              // new Point(x[index], y[index])
+ *   void set(int index, Point value);  // x[index] = value.x; y[index] = value.y
+ * }
+ * </pre>
+ * <code>points[i].x</code> reads and writes the column directly, only using an element as a whole goes through
+ * get and set. Elements are copied in and out, so they cannot be null and changing a struct taken out of the array
+ * does not change the array.
+ *
+ * @author tim
+ */
+public class ColumnarContainerCompiler {
+
+    public static final String CONTAINER_SUFFIX = "$Columns";
+    public static final String LENGTH_FIELD = "length";
+
+    public static String getContainerName(String structName) {
+        return structName + CONTAINER_SUFFIX;
+    }
+
+    /**
+     * @return the struct the class is the container of, null if it is no container class name
+     */
+    public static String getStructName(String className) {
+        return className.endsWith(CONTAINER_SUFFIX) ? className.substring(0, className.length() - CONTAINER_SUFFIX.length()) : null;
+    }
+
+    /**
+     * Maps <code>Struct[]</code> of every columnar struct to its container class, {@link me.pr3.atypical.compiler.util.TypeUtil}
+     * looks these up when resolving array types.
+     */
+    public static void addArrayMappings(Map<String, String> importMapping, Collection<String> columnarStructs) {
+        for (String columnarStruct : columnarStructs) {
+            importMapping.put(columnarStruct + "[]", getContainerName(columnarStruct));
+        }
+    }
+
+    public ClassNode generateContainer(ClassNode struct) {
+        String containerName = getContainerName(struct.name);
+        ClassNode container = new ClassNode();
+        container.access = Opcodes.ACC_PUBLIC;
+        container.version = struct.version;
+        container.name = containerName;
+        container.superName = "java/lang/Object";
+        container.methods = new ArrayList<>();
+
+        List<FieldNode> columns = new ArrayList<>();
+        columns.add(new FieldNode(Opcodes.ACC_PUBLIC, LENGTH_FIELD, "I", null, null));
+        for (FieldNode field : struct.fields) {
+            if (field.name.equals(LENGTH_FIELD)) {
+                throw new IllegalArgumentException("Columnar struct " + struct.name + " cannot have a field named " + LENGTH_FIELD);
+            }
+            columns.add(new FieldNode(Opcodes.ACC_PUBLIC, field.name, "[" + field.desc, null, null));
+        }
+        container.fields = columns;
+
+        container.methods.add(generateConstructor(containerName, struct));
+        container.methods.add(generateGet(containerName, struct));
+        container.methods.add(generateSet(containerName, struct));
+        return container;
+    }
+
+    private MethodNode generateConstructor(String containerName, ClassNode struct) {
+        MethodNode constructor = new MethodNode(Opcodes.ACC_PUBLIC, "<init>", "(I)V", null, new String[0]);
+        InsnList instructions = constructor.instructions;
+        instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V"));
+        instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        instructions.add(new VarInsnNode(Opcodes.ILOAD, 1));
+        instructions.add(new FieldInsnNode(Opcodes.PUTFIELD, containerName, LENGTH_FIELD, "I"));
+        for (FieldNode field : struct.fields) {
+            instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+            instructions.add(new VarInsnNode(Opcodes.ILOAD, 1));
+            instructions.add(newArray(Type.getType(field.desc)));
+            instructions.add(new FieldInsnNode(Opcodes.PUTFIELD, containerName, field.name, "[" + field.desc));
+        }
+        instructions.add(new InsnNode(Opcodes.RETURN));
+        return constructor;
+    }
+
+    private MethodNode generateGet(String containerName, ClassNode struct) {
+        MethodNode get = new MethodNode(Opcodes.ACC_PUBLIC, "get", "(I)L" + struct.name + ";", null, new String[0]);
+        InsnList instructions = get.instructions;
+        StringBuilder initializerDesc = new StringBuilder("(");
+        instructions.add(new TypeInsnNode(Opcodes.NEW, struct.name));
+        instructions.add(new InsnNode(Opcodes.DUP));
+        for (FieldNode field : struct.fields) {
+            instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+            instructions.add(new FieldInsnNode(Opcodes.GETFIELD, containerName, field.name, "[" + field.desc));
+            instructions.add(new VarInsnNode(Opcodes.ILOAD, 1));
+            instructions.add(new InsnNode(Type.getType(field.desc).getOpcode(Opcodes.IALOAD)));
+            initializerDesc.append(field.desc);
+        }
+        instructions.add(new InsnNode(Opcodes.ACONST_NULL));
+        instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, struct.name, "<init>", initializerDesc + "Ljava/lang/Void;)V"));
+        instructions.add(new InsnNode(Opcodes.ARETURN));
+        return get;
+    }
+
+    private MethodNode generateSet(String containerName, ClassNode struct) {
+        MethodNode set = new MethodNode(Opcodes.ACC_PUBLIC, "set", "(IL" + struct.name + ";)V", null, new String[0]);
+        InsnList instructions = set.instructions;
+        for (FieldNode field : struct.fields) {
+            instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+            instructions.add(new FieldInsnNode(Opcodes.GETFIELD, containerName, field.name, "[" + field.desc));
+            instructions.add(new VarInsnNode(Opcodes.ILOAD, 1));
+            instructions.add(new VarInsnNode(Opcodes.ALOAD, 2));
+            instructions.add(new FieldInsnNode(Opcodes.GETFIELD, struct.name, field.name, field.desc));
+            instructions.add(new InsnNode(Type.getType(field.desc).getOpcode(Opcodes.IASTORE)));
+        }
+        instructions.add(new InsnNode(Opcodes.RETURN));
+        return set;
+    }
+
+    private static AbstractInsnNode newArray(Type elementType) {
+        return switch (elementType.getSort()) {
+            case Type.BOOLEAN -> new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_BOOLEAN);
+            case Type.CHAR -> new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_CHAR);
+            case Type.BYTE -> new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_BYTE);
+            case Type.SHORT -> new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_SHORT);
+            case Type.INT -> new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT);
+            case Type.FLOAT -> new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT);
+            case Type.LONG -> new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG);
+            case Type.DOUBLE -> new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE);
+            default -> new TypeInsnNode(Opcodes.ANEWARRAY, elementType.getInternalName());
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package me.pr3.atypical.compiler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Switches for the different lowering modes of the {@link StructureCompiler}.
+ *
+ * @author tim
+ */
+public class CompilerOptions {
+
+    //Compile impl method bodies into static bridges (Trait$Struct.method$static(Struct self, args...)) that are
+    //called directly for trait methods on struct receivers, instead of allocating a Trait$Struct per call.
+    //The instance methods of the impl class stay as delegates so the impl class still implements the trait.
+    public boolean staticImplBridges = true;
+
+    //0 writes the bytecode as generated, 1 and 2 run the {@link me.pr3.atypical.compiler.optimizer.PeepholeOptimizer}
+    //over every method before the class is written (-O1/-O2 on the command line), 2 also replaces structs that do not
+    //escape their method by locals ({@link me.pr3.atypical.compiler.optimizer.ScalarReplacement})
+    public int optimizationLevel = 0;
+
+    //At optimization level 2, calls to methods declared in the same file with at most this many instructions are
+    //replaced by the body of the method ({@link me.pr3.atypical.compiler.optimizer.MethodInliner}), 0 disables inlining
+    public int maxInlineSize = 24;
+
+    //Executor used to parse files, compile method bodies and write classes in parallel, e.g. ForkJoinPool.commonPool() or
+    //the pool of -j threads a build creates. If null everything is compiled on the calling thread.
+    public Executor executor = null;
+
+    /**
+     * @return the options that change the generated code, builds with a different fingerprint do not share outputs
+     */
+    public String fingerprint() {
+        return "staticImplBridges=" + staticImplBridges + ";optimizationLevel=" + optimizationLevel
+                + ";maxInlineSize=" + maxInlineSize;
+    }
+
+}
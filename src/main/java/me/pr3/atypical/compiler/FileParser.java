@@ -0,0 +1,102 @@
+package me.pr3.atypical.compiler;
+
+import me.pr3.atypical.generated.AtypicalLexer;
+import me.pr3.atypical.generated.AtypicalParser;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.nio.CharBuffer;
+
+import static me.pr3.atypical.generated.AtypicalParser.FileContext;
+
+/**
+ * Parses Atypical source files in two stages: first with the cheaper SLL prediction and a bailing error strategy,
+ * and only if that fails (on a syntax error or an input that actually needs full context) again with full LL.
+ * The DFA the prediction builds up is kept in static fields of the generated lexer and parser, so it stays warm
+ * for all parses in the same JVM.
+ *
+ * @author tim
+ */
+public class FileParser {
+
+    public static FileContext parse(String sourceName, CharSequence source) {
+        return parse(toCharStream(sourceName, source));
+    }
+
+    public static FileContext parse(CharStream input) {
+        AtypicalLexer lexer = new AtypicalLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        AtypicalParser parser = new AtypicalParser(tokens);
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.file();
+        } catch (ParseCancellationException e) {
+            //Either a syntax error or SLL was not powerful enough, rewind and let full LL decide (and report errors)
+            tokens.seek(0);
+            parser.reset();
+            parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.file();
+        }
+    }
+
+    /**
+     * Parses the source without reporting anything.
+     *
+     * @return the parse tree or null if the source has syntax errors
+     */
+    public static FileContext parseOrNull(String sourceName, CharSequence source) {
+        AtypicalLexer lexer = new AtypicalLexer(toCharStream(sourceName, source));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+                throw new ParseCancellationException(msg);
+            }
+        });
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        AtypicalParser parser = new AtypicalParser(tokens);
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.file();
+        } catch (ParseCancellationException e) {
+            try {
+                tokens.seek(0);
+                parser.reset();
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                return parser.file();
+            } catch (ParseCancellationException syntaxError) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Array backed CharBuffers (e.g. decoded from a memory mapped file) are handed to the lexer without copying
+     * them into a String first. The builder joins surrogate pairs into one code point, like CharStreams.fromString.
+     */
+    public static CharStream toCharStream(String sourceName, CharSequence source) {
+        if (source instanceof CharBuffer buffer && buffer.hasArray()) {
+            CodePointBuffer.Builder codePoints = CodePointBuffer.builder(buffer.remaining());
+            codePoints.append(buffer.duplicate());
+            return CodePointCharStream.fromBuffer(codePoints.build(), sourceName);
+        }
+        return CharStreams.fromString(source.toString(), sourceName);
+    }
+
+    /**
+     * Parses the input with full LL prediction only.
+     */
+    public static FileContext parseLL(CharStream input) {
+        AtypicalLexer lexer = new AtypicalLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        AtypicalParser parser = new AtypicalParser(tokens);
+        return parser.file();
+    }
+}
@@ -0,0 +1,45 @@
+package me.pr3.atypical.compiler;
+
+import me.pr3.atypical.compiler.util.ClassNodeUtil;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+/**
+ * Generates the instance methods of an impl class as delegates to their static bridges.
+ *
+ * @author tim
+ */
+public class ImplBridgeCompiler {
+
+    public static final String BRIDGE_SUFFIX = "$static";
+
+    private final StructureCompiler structureCompiler;
+
+    public ImplBridgeCompiler(StructureCompiler structureCompiler) {
+        this.structureCompiler = structureCompiler;
+    }
+
+    public static String getBridgeName(String methodName) {
+        return methodName + BRIDGE_SUFFIX;
+    }
+
+    public static String getBridgeDesc(String structDesc, String methodDesc) {
+        return "(" + structDesc + methodDesc.substring(1);
+    }
+
+    public void compileDelegate(String className, String methodName, String methodDesc, String structDesc) {
+        ClassNode implClassNode = structureCompiler.generatedClassNodes.get(className);
+        MethodNode delegate = ClassNodeUtil.getMethodNodeByNameAndDescriptor(implClassNode, methodName, methodDesc);
+        delegate.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        delegate.instructions.add(new FieldInsnNode(Opcodes.GETFIELD, className, "this_", structDesc));
+        int index = 1;
+        for (Type argumentType : Type.getArgumentTypes(methodDesc)) {
+            delegate.instructions.add(new VarInsnNode(argumentType.getOpcode(Opcodes.ILOAD), index));
+            index += argumentType.getSize();
+        }
+        delegate.instructions.add(new MethodInsnNode(Opcodes.INVOKESTATIC, className,
+                getBridgeName(methodName), getBridgeDesc(structDesc, methodDesc)));
+        delegate.instructions.add(new InsnNode(Type.getReturnType(methodDesc).getOpcode(Opcodes.IRETURN)));
+    }
+}
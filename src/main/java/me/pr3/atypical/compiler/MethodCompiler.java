@@ -1,5 +1,6 @@
 package me.pr3.atypical.compiler;
 
+import me.pr3.atypical.compiler.expression.ConstantEvaluator;
 import me.pr3.atypical.compiler.statement.StatementCompiler;
 import me.pr3.atypical.compiler.typing.Type;
 import me.pr3.atypical.compiler.util.ClassNodeUtil;
@@ -20,6 +21,10 @@ public class MethodCompiler {
 
     public List<Type> localVars = new ArrayList<>();//Holds the type of each local var (we do not reuse indices)
     public Map<String, Integer> localVarNameMapping = new HashMap<>();
+    //Values of the locals that are declared once with a constant expression and never reassigned, by index
+    public Map<Integer, ConstantEvaluator.Constant> localConstants = new HashMap<>();
+    public Set<String> singleAssignmentLocals = Set.of();
+    private ConstantEvaluator constantEvaluator;
 
     public MethodNode methodNode = null;
     public LabelNode startLabel = new LabelNode();
@@ -31,23 +36,48 @@ public class MethodCompiler {
         this.structureCompiler = parent;
     }
 
+    //Created on first use, the evaluator keeps a reference to this compiler which must not escape the constructor
+    public ConstantEvaluator getConstantEvaluator() {
+        if (constantEvaluator == null) constantEvaluator = new ConstantEvaluator(this);
+        return constantEvaluator;
+    }
+
     public void compileMethod(String fileName, MethodImplementationContext value) {
         compileMethod(fileName, value, fileName.replace(".atp", ""));
     }
 
     public void compileMethod(String fileName, MethodImplementationContext value, String className) {
-        this.fileName = fileName;
-        this.className = className;
         ClassNode node = structureCompiler.generatedClassNodes.get(className);
-        this.methodNode = ClassNodeUtil.getMethodNodeByNameAndDescriptor(node,
+        MethodNode methodNode = ClassNodeUtil.getMethodNodeByNameAndDescriptor(node,
                 value.methodSignature().memberName().getText(),
                 TypeUtil.extractMethodDescriptor(value.methodSignature(), structureCompiler.imports.get(fileName)));
+        // instance method: slot 0 is `this`
+        Type thisType = (methodNode.access & Opcodes.ACC_STATIC) == 0 ? Type.fromInternalName(node.name) : null;
+        compileMethod(fileName, value, className, methodNode, thisType);
+    }
+
+    /**
+     * Compiles the body of an impl method into its static bridge, the struct the impl is for is passed in slot 0
+     * and takes the place of `this`.
+     */
+    public void compileImplBridge(String fileName, MethodImplementationContext value, String className, String structDesc) {
+        ClassNode node = structureCompiler.generatedClassNodes.get(className);
+        String desc = TypeUtil.extractMethodDescriptor(value.methodSignature(), structureCompiler.imports.get(fileName));
+        MethodNode methodNode = ClassNodeUtil.getMethodNodeByNameAndDescriptor(node,
+                ImplBridgeCompiler.getBridgeName(value.methodSignature().memberName().getText()),
+                ImplBridgeCompiler.getBridgeDesc(structDesc, desc));
+        compileMethod(fileName, value, className, methodNode, Type.fromDescriptor(structDesc));
+    }
+
+    private void compileMethod(String fileName, MethodImplementationContext value, String className, MethodNode methodNode, Type thisType) {
+        this.fileName = fileName;
+        this.className = className;
+        this.methodNode = methodNode;
+        this.singleAssignmentLocals = ConstantEvaluator.findSingleAssignmentLocals(value);
 
-        // Add local vars for parameters (and `this` for non-static methods)
-        org.objectweb.asm.Type[] argTypes = org.objectweb.asm.Type.getArgumentTypes(methodNode.desc);
-        if ((methodNode.access & Opcodes.ACC_STATIC) == 0) {
-            // instance method: slot 0 is `this`
-                addLocalVar(Type.fromInternalName(node.name), "this");
+        // Add local vars for parameters (and `this` for non-static methods and impl bridges)
+        if (thisType != null) {
+            addLocalVar(thisType, "this");
         }
         if(value.methodSignature().parameterList()!= null) {
             for (ParameterDeclarationContext parameterDeclarationContext : value.methodSignature().parameterList().parameterDeclaration()) {
@@ -1,5 +1,6 @@
 package me.pr3.atypical.compiler;
 
+import me.pr3.atypical.compiler.typing.Type;
 import me.pr3.atypical.compiler.util.ClassNodeUtil;
 import me.pr3.atypical.compiler.util.TypeUtil;
 import me.pr3.atypical.generated.AtypicalParser;
@@ -35,16 +36,17 @@ public class StructInitializerCompiler {
 
         int i = 1;
         for (AtypicalParser.StructMemberDeclarationContext structMemberDeclarationContext : members) {
+            Type memberType = Type.fromDescriptor(TypeUtil.toDesc(structMemberDeclarationContext.typeName().getText(), structureCompiler.imports.get(fileName)));
             structInitializer.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
-            structInitializer.instructions.add(new VarInsnNode(getLoadInstructionForType(
-                    TypeUtil.toDesc(structMemberDeclarationContext.typeName().getText(), structureCompiler.imports.get(fileName))), i));
+            structInitializer.instructions.add(new VarInsnNode(getLoadInstructionForType(memberType.toString()), i));
             structInitializer.instructions.add(new FieldInsnNode(Opcodes.PUTFIELD,
                     structureCompiler.imports.get(fileName).getOrDefault(moduleName, moduleName),
                     structMemberDeclarationContext.memberName().getText(),
                     TypeUtil.toDesc(structMemberDeclarationContext.typeName().getText(),
                             structureCompiler.imports.get(fileName))
             ));
-            i++;
+            //long and double parameters take two slots
+            i += memberType.getSize();
         }
         structInitializer.instructions.add(new InsnNode(Opcodes.RETURN));
     }
@@ -58,10 +60,7 @@ public class StructInitializerCompiler {
     }
 
     public int getLoadInstructionForType(String varType) {
-        return switch (varType) {
-            case "I", "Z" -> Opcodes.ILOAD;
-            default -> Opcodes.ALOAD;
-        };
+        return Type.fromDescriptor(varType).getOpcode(Opcodes.ILOAD);
     }
 
 }
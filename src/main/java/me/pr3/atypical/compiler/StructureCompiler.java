@@ -1,10 +1,11 @@
 package me.pr3.atypical.compiler;
 
+import me.pr3.atypical.compiler.incremental.BytecodeCache;
+import me.pr3.atypical.compiler.optimizer.MethodInliner;
+import me.pr3.atypical.compiler.optimizer.PeepholeOptimizer;
+import me.pr3.atypical.compiler.optimizer.ScalarReplacement;
+import me.pr3.atypical.compiler.util.ClassRepository;
 import me.pr3.atypical.compiler.util.TypeUtil;
-import me.pr3.atypical.generated.AtypicalLexer;
-import me.pr3.atypical.generated.AtypicalParser;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
@@ -13,6 +14,10 @@ import org.objectweb.asm.tree.MethodNode;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static me.pr3.atypical.generated.AtypicalParser.*;
@@ -23,7 +28,8 @@ import static me.pr3.atypical.generated.AtypicalParser.*;
 public class StructureCompiler {
 
     //Input
-    public Map<String, String> inputFiles;
+    public Map<String, ? extends CharSequence> inputFiles;
+    public CompilerOptions options;
 
     //Intermediate
     public Map<String, Set<ModuleDeclarationContext>> modules = new HashMap<>();
@@ -38,22 +44,97 @@ public class StructureCompiler {
 
     public Map<String, Set<String>> implementedTraitsForStruct = new HashMap<>();
 
+    //Structs declared as columnar, arrays of these are compiled to their container class (see ColumnarContainerCompiler)
+    public Set<String> columnarStructs = new HashSet<>();
+
+    //Structs and modules with a struct declared by the sources of the build, see isStruct
+    public Set<String> structNames = new HashSet<>();
+
+    //Map<File, Types the file depends on>, filled while compiling the file, used for incremental builds
+    public Map<String, Set<String>> referencedTypes = new ConcurrentHashMap<>();
+
+    //Map<Class, File the class is generated from>
+    public Map<String, String> declaringFiles = new HashMap<>();
+
     //Output
     public Map<String, ClassNode> generatedClassNodes = new HashMap<>();
 
     public Map<String, byte[]> generatedClasses = new HashMap<>();
 
-    public StructureCompiler(Map<String, String> files) {
+    //End of the descriptor of the constructor struct initializers call, the Void parameter tells it apart from
+    //constructors of library classes with the same fields
+    public static final String STRUCT_INITIALIZER_SUFFIX = "Ljava/lang/Void;)V";
+
+    //Metadata of library classes, shared between compilations by default
+    public ClassRepository classRepository = ClassRepository.shared();
+
+    //Classes of files that were compiled before with the same declarations are taken from here if set
+    public BytecodeCache bytecodeCache = null;
+    private final Map<String, String> signatures = new ConcurrentHashMap<>();
+
+    public StructureCompiler(Map<String, ? extends CharSequence> files) {
+        this(files, new CompilerOptions());
+    }
+
+    public StructureCompiler(Map<String, ? extends CharSequence> files, CompilerOptions options) {
         this.inputFiles = files;
+        this.options = options;
     }
 
     public Map<String, byte[]> compile() {
 
+        //Files are lexed and parsed independently of each other, the results are merged afterwards in input order
+        List<Supplier<ParsedFile>> parseTasks = new ArrayList<>();
+        for (Entry<String, ? extends CharSequence> inputFile : inputFiles.entrySet()) {
+            parseTasks.add(() -> parseSingleFile(inputFile.getKey(), inputFile.getValue()));
+        }
+        for (ParsedFile parsedFile : runTasks(parseTasks)) {
+            addParsedFile(parsedFile);
+        }
+        for (Map<String, String> fileImports : imports.values()) {
+            ColumnarContainerCompiler.addArrayMappings(fileImports, columnarStructs);
+        }
+
         //Generate Java Class Structure
-        for (Entry<String, String> inputFile : inputFiles.entrySet()) {
-            parseSingleFile(inputFile.getKey(), inputFile.getValue());
+
+        generateClassStructure();
+
+        //Everything below only reads the declarations, which allows compiling the method bodies and writing the
+        //classes in parallel
+        freezeDeclarations();
+
+        Set<String> cachedFiles = bytecodeCache == null ? Set.of() : loadCachedFiles();
+
+        runTasks(collectMethodBodyTasks(cachedFiles));
+
+        //Only methods of the same file are inlined, so a cached file never contains code of another file
+        if (options.optimizationLevel >= 2 && options.maxInlineSize > 0) {
+            runTasks(inputFiles.keySet().stream()
+                    .filter(fileName -> !cachedFiles.contains(fileName))
+                    .map(fileName -> task(() -> inlineMethods(fileName)))
+                    .toList());
+        }
+
+        List<String> classNames = new ArrayList<>(generatedClassNodes.keySet());
+        classNames.removeIf(className -> cachedFiles.contains(declaringFiles.get(className)));
+        List<byte[]> outputs = runTasks(classNames.stream()
+                .map(className -> (Supplier<byte[]>) () -> writeClass(generatedClassNodes.get(className)))
+                .toList());
+        for (int i = 0; i < classNames.size(); i++) {
+            generatedClasses.put(classNames.get(i), outputs.get(i));
+        }
+
+        if (bytecodeCache != null) {
+            runTasks(inputFiles.keySet().stream()
+                    .filter(fileName -> !cachedFiles.contains(fileName))
+                    .map(fileName -> task(() -> storeCachedFile(fileName)))
+                    .toList());
         }
 
+        return generatedClasses;
+    }
+
+    private void generateClassStructure() {
         for (Entry<String, Set<ModuleDeclarationContext>> entry : modules.entrySet()) {
             for (ModuleDeclarationContext module : entry.getValue()) {
                 generateClassNodeFromModule(module, entry.getKey());
@@ -83,21 +164,102 @@ public class StructureCompiler {
                 generateClassFromStruct(struct, structsInFile.getKey());
             }
         }
+    }
+
+    private void freezeDeclarations() {
+        generatedClassNodes = Collections.unmodifiableMap(new LinkedHashMap<>(generatedClassNodes));
 
+        Map<String, Map<String, String>> frozenImports = new LinkedHashMap<>();
+        for (Entry<String, Map<String, String>> entry : imports.entrySet()) {
+            frozenImports.put(entry.getKey(), Collections.unmodifiableMap(new LinkedHashMap<>(entry.getValue())));
+        }
+        imports = Collections.unmodifiableMap(frozenImports);
+
+        Map<String, Set<String>> frozenImplementedTraits = new LinkedHashMap<>();
+        for (Entry<String, Set<String>> entry : implementedTraitsForStruct.entrySet()) {
+            frozenImplementedTraits.put(entry.getKey(), Collections.unmodifiableSet(new LinkedHashSet<>(entry.getValue())));
+        }
+        implementedTraitsForStruct = Collections.unmodifiableMap(frozenImplementedTraits);
+        columnarStructs = Collections.unmodifiableSet(new LinkedHashSet<>(columnarStructs));
+        structNames = Collections.unmodifiableSet(new LinkedHashSet<>(structNames));
+        declaringFiles = Collections.unmodifiableMap(new LinkedHashMap<>(declaringFiles));
+    }
+
+    /**
+     * Takes the classes of every file with a valid entry in the bytecode cache, the bodies of these files are not
+     * compiled at all.
+     *
+     * @return the files that were served from the cache
+     */
+    private Set<String> loadCachedFiles() {
+        List<String> fileNames = new ArrayList<>(inputFiles.keySet());
+        List<BytecodeCache.Entry> entries = runTasks(fileNames.stream()
+                .map(fileName -> (Supplier<BytecodeCache.Entry>) () -> loadCachedFile(fileName))
+                .toList());
+        Set<String> cachedFiles = new HashSet<>();
+        for (int i = 0; i < fileNames.size(); i++) {
+            BytecodeCache.Entry entry = entries.get(i);
+            if (entry == null) continue;
+            cachedFiles.add(fileNames.get(i));
+            generatedClasses.putAll(entry.classes());
+            for (String referencedType : entry.signatures().keySet()) {
+                recordReference(fileNames.get(i), referencedType);
+            }
+        }
+        return cachedFiles;
+    }
+
+    private BytecodeCache.Entry loadCachedFile(String fileName) {
+        BytecodeCache.Entry entry = bytecodeCache.load(BytecodeCache.key(options, fileName, inputFiles.get(fileName)));
+        if (entry == null) return null;
+        for (Entry<String, String> signature : entry.signatures().entrySet()) {
+            if (!signature.getValue().equals(getSignature(signature.getKey()))) return null;
+        }
+        Set<String> declaredClasses = new HashSet<>();
+        declaringFiles.forEach((className, declaringFile) -> {
+            if (declaringFile.equals(fileName)) declaredClasses.add(className);
+        });
+        return entry.classes().keySet().equals(declaredClasses) ? entry : null;
+    }
+
+    private void storeCachedFile(String fileName) {
+        Map<String, String> fileSignatures = new TreeMap<>();
+        for (String referencedType : referencedTypes.getOrDefault(fileName, Set.of())) {
+            fileSignatures.put(referencedType, getSignature(referencedType));
+        }
+        Map<String, byte[]> classes = new TreeMap<>();
+        declaringFiles.forEach((className, declaringFile) -> {
+            if (declaringFile.equals(fileName)) classes.put(className, generatedClasses.get(className));
+        });
+        bytecodeCache.store(BytecodeCache.key(options, fileName, inputFiles.get(fileName)), new BytecodeCache.Entry(fileSignatures, classes));
+    }
+
+    private String getSignature(String internalName) {
+        return signatures.computeIfAbsent(internalName, name ->
+                BytecodeCache.signature(getClassNode(name), implementedTraitsForStruct.getOrDefault(name, Set.of())));
+    }
+
+    private List<Supplier<Void>> collectMethodBodyTasks(Set<String> cachedFiles) {
+        List<Supplier<Void>> tasks = new ArrayList<>();
         for (Entry<String, Set<ModuleDeclarationContext>> entry : modules.entrySet()) {
+            if (cachedFiles.contains(entry.getKey())) continue;
             for (ModuleDeclarationContext moduleDeclarationContext : entry.getValue()) {
                 String moduleName = moduleDeclarationContext.typeName().getText();
                 for (ModuleMemberDeclarationContext moduleMemberDeclaration : moduleDeclarationContext.moduleMemberDeclaration()) {
                     if(moduleMemberDeclaration.moduleSelfImplDeclaration() != null){
                         ModuleSelfImplDeclarationContext moduleSelfImplDeclaration = moduleMemberDeclaration.moduleSelfImplDeclaration();
                         for (ImplMemberDeclarationContext implMember : moduleSelfImplDeclaration.implMemberDeclaration()) {
-                            MethodCompiler methodCompiler = new MethodCompiler(this);
-                            methodCompiler.compileMethod(entry.getKey(), implMember.methodImplementation(), moduleName);
+                            tasks.add(task(() -> {
+                                MethodCompiler methodCompiler = new MethodCompiler(this);
+                                methodCompiler.compileMethod(entry.getKey(), implMember.methodImplementation(), moduleName);
+                            }));
                         }
                     }
                     if(moduleMemberDeclaration.moduleStructDeclaration() != null){
-                        StructInitializerCompiler structInitializerCompiler = new StructInitializerCompiler(this);
-                        structInitializerCompiler.compileStructInitializer(moduleMemberDeclaration.moduleStructDeclaration(), entry.getKey(), moduleName);
+                        tasks.add(task(() -> {
+                            StructInitializerCompiler structInitializerCompiler = new StructInitializerCompiler(this);
+                            structInitializerCompiler.compileStructInitializer(moduleMemberDeclaration.moduleStructDeclaration(), entry.getKey(), moduleName);
+                        }));
                     }
                 }
             }
@@ -105,35 +267,102 @@ public class StructureCompiler {
 
         for (Entry<String, Set<ImplDeclarationContext>> entry : impls.entrySet()) {
             String fileName = entry.getKey();
+            if (cachedFiles.contains(fileName)) continue;
             for (ImplDeclarationContext impl : entry.getValue()) {
                 String implementedTraitName = imports.get(fileName).getOrDefault(impl.itf.getText(), impl.itf.getText());
                 String structName = imports.get(fileName).getOrDefault(impl.struct.getText(), impl.struct.getText());
                 String implClassName = implementedTraitName +  "$" + structName.replace("/", "_");
                 for (ImplMemberDeclarationContext member : impl.implMemberDeclaration()) {
-                    MethodCompiler methodCompiler = new MethodCompiler(this);
-                    methodCompiler.compileMethod(fileName, member.methodImplementation(), implClassName);
+                    tasks.add(task(() -> {
+                        MethodCompiler methodCompiler = new MethodCompiler(this);
+                        if(options.staticImplBridges){
+                            String structDesc = TypeUtil.toDesc(impl.struct.getText(), imports.get(fileName));
+                            MethodSignatureContext signature = member.methodImplementation().methodSignature();
+                            methodCompiler.compileImplBridge(fileName, member.methodImplementation(), implClassName, structDesc);
+                            ImplBridgeCompiler implBridgeCompiler = new ImplBridgeCompiler(this);
+                            implBridgeCompiler.compileDelegate(implClassName, signature.memberName().getText(),
+                                    TypeUtil.extractMethodDescriptor(signature, imports.get(fileName)), structDesc);
+                        }else {
+                            methodCompiler.compileMethod(fileName, member.methodImplementation(), implClassName);
+                        }
+                    }));
                 }
-                ImplConstructorCompiler implConstructorCompiler = new ImplConstructorCompiler(this);
-                implConstructorCompiler.compileImplConstructor(impl, implClassName, fileName);
+                tasks.add(task(() -> {
+                    ImplConstructorCompiler implConstructorCompiler = new ImplConstructorCompiler(this);
+                    implConstructorCompiler.compileImplConstructor(impl, implClassName, fileName);
+                }));
             }
         }
 
         for (Entry<String, List<MethodImplementationContext>> entry : globalMethods.entrySet()) {
+            if (cachedFiles.contains(entry.getKey())) continue;
             for (MethodImplementationContext methodImplementationContext : entry.getValue()) {
-                MethodCompiler methodCompiler = new MethodCompiler(this);
-                methodCompiler.compileMethod(entry.getKey(), methodImplementationContext);
+                tasks.add(task(() -> {
+                    MethodCompiler methodCompiler = new MethodCompiler(this);
+                    methodCompiler.compileMethod(entry.getKey(), methodImplementationContext);
+                }));
             }
         }
+        return tasks;
+    }
 
-        for (Map.Entry<String, ClassNode> entry : generatedClassNodes.entrySet()) {
-            ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-            entry.getValue().accept(classWriter);
-            byte[] output = classWriter.toByteArray();
+    private void inlineMethods(String fileName) {
+        List<ClassNode> classNodes = new ArrayList<>();
+        declaringFiles.forEach((className, declaringFile) -> {
+            if (declaringFile.equals(fileName)) classNodes.add(generatedClassNodes.get(className));
+        });
+        MethodInliner methodInliner = new MethodInliner(classNodes, options.maxInlineSize);
+        for (ClassNode classNode : classNodes) {
+            methodInliner.inline(classNode);
+        }
+    }
 
-            generatedClasses.put(entry.getKey(), output);
+    private byte[] writeClass(ClassNode classNode) {
+        if (options.optimizationLevel >= 2) {
+            new ScalarReplacement(name -> isStruct(name) ? getClassNode(name) : null).optimize(classNode);
+        }
+        if (options.optimizationLevel > 0) {
+            new PeepholeOptimizer(options.optimizationLevel).optimize(classNode);
         }
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
 
-        return generatedClasses;
+    private static Supplier<Void> task(Runnable runnable) {
+        return () -> {
+            runnable.run();
+            return null;
+        };
+    }
+
+    /**
+     * Runs the tasks on the executor of the compiler options, or on the current thread if there is none.
+     * The results are returned in the order of the tasks and the first failing task (in that order) is rethrown,
+     * so the output does not depend on the scheduling.
+     */
+    private <T> List<T> runTasks(List<Supplier<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (options.executor == null) {
+            for (Supplier<T> task : tasks) {
+                results.add(task.get());
+            }
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Supplier<T> task : tasks) {
+            futures.add(CompletableFuture.supplyAsync(task, options.executor));
+        }
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) throw cause;
+                if (e.getCause() instanceof Error cause) throw cause;
+                throw e;
+            }
+        }
+        return results;
     }
 
     private void generateClassFromStruct(StructDeclarationContext struct, String key) {
@@ -145,10 +374,13 @@ public class StructureCompiler {
         classNode.methods = new ArrayList<>();
         classNode.superName= "java/lang/Object";
         generatedClassNodes.put(struct.typeName().getText(), classNode);
+        declaringFiles.put(classNode.name, key);
+        structNames.add(classNode.name);
         for (StructMemberDeclarationContext structMemberDeclarationContext : struct.structMemberDeclaration()) {
+            String desc = TypeUtil.toDesc(structMemberDeclarationContext.typeName().getText(), imports.get(key));
+            recordDescriptorReferences(key, desc);
             structMembers.add(new FieldNode(Opcodes.ACC_PUBLIC,
-                    structMemberDeclarationContext.memberName().getText(),
-                    TypeUtil.toDesc(structMemberDeclarationContext.typeName().getText(), imports.get(key)), null, null));
+                    structMemberDeclarationContext.memberName().getText(), desc, null, null));
         }
         classNode.fields = structMembers;
         //Add the synthetic constructor used by the struct initializer expression
@@ -157,6 +389,11 @@ public class StructureCompiler {
         StructInitializerCompiler structInitializerCompiler = new StructInitializerCompiler(this);
         structInitializerCompiler.compileStructInitializer(struct, key, struct.typeName().getText());
 
+        if (struct.COLUMNAR() != null) {
+            ClassNode container = new ColumnarContainerCompiler().generateContainer(classNode);
+            generatedClassNodes.put(container.name, container);
+            declaringFiles.put(container.name, key);
+        }
     }
 
     private void generateOrAddToClassForGlobalMethod(String className, MethodImplementationContext method) {
@@ -172,11 +409,14 @@ public class StructureCompiler {
             classNode.methods = new ArrayList<>();
             classNode.superName= "java/lang/Object";
             generatedClassNodes.put(trimmed, classNode);
+            declaringFiles.put(trimmed, className);
         }
+        String desc = TypeUtil.extractMethodDescriptor(method.methodSignature(), imports.get(className));
+        recordDescriptorReferences(className, desc);
         MethodNode methodNode = new MethodNode(
                 Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
                 method.methodSignature().memberName().getText(),
-                TypeUtil.extractMethodDescriptor(method.methodSignature(), imports.get(className)),
+                desc,
                 null,
                 new String[]{}
         );
@@ -196,13 +436,19 @@ public class StructureCompiler {
         classNode.superName = "java/lang/Object";
         classNode.interfaces = List.of(imports.get(fileName).getOrDefault(context.itf.getText(), context.itf.getText()));
 
+        String structType = TypeUtil.toDesc(context.struct.getText(), imports.get(fileName));
         for (ImplMemberDeclarationContext member : context.implMemberDeclaration()) {
             MethodSignatureContext signature = member.methodImplementation().methodSignature();
             String desc = TypeUtil.extractMethodDescriptor(signature, imports.get(fileName));
+            recordDescriptorReferences(fileName, desc);
             MethodNode methodNode = new MethodNode(Opcodes.ACC_PUBLIC, signature.memberName().getText(), desc, null, null);
             classNode.methods.add(methodNode);
+            if(options.staticImplBridges){
+                classNode.methods.add(new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                        ImplBridgeCompiler.getBridgeName(signature.memberName().getText()),
+                        ImplBridgeCompiler.getBridgeDesc(structType, desc), null, null));
+            }
         }
-        String structType = TypeUtil.toDesc(context.struct.getText(), imports.get(fileName));
         String constructorDesc = "(" + structType + ")V";
         MethodNode constructor = new MethodNode(Opcodes.ACC_PUBLIC, "<init>", constructorDesc, null, new String[0]);
         classNode.methods.add(constructor);
@@ -211,6 +457,7 @@ public class StructureCompiler {
         classNode.fields = List.of(thisField);
 
         generatedClassNodes.put(className, classNode);
+        declaringFiles.put(className, fileName);
     }
 
     private void generateInterfaceFromTrait(TraitDeclarationContext context, String fileName){
@@ -224,10 +471,12 @@ public class StructureCompiler {
         for (TraitMemberDeclarationContext member : context.traitMemberDeclaration()) {
             MethodSignatureContext signature = member.methodDeclaration().methodSignature();
             String desc = TypeUtil.extractMethodDescriptor(signature, imports.get(fileName));
+            recordDescriptorReferences(fileName, desc);
             classNode.methods.add(new MethodNode(Opcodes.ACC_ABSTRACT | Opcodes.ACC_PUBLIC, signature.memberName().getText(), desc, null, null));
         }
 
         generatedClassNodes.put(context.typeName().getText(), classNode);
+        declaringFiles.put(classNode.name, fileName);
     }
 
     private void generateClassNodeFromModule(ModuleDeclarationContext moduleDeclarationContext, String fileName) {
@@ -245,23 +494,27 @@ public class StructureCompiler {
                 List<FieldNode> structMembers = new ArrayList<>();
                 ModuleStructDeclarationContext struct = member.moduleStructDeclaration();
                 for (StructMemberDeclarationContext structMemberDeclarationContext : struct.structMemberDeclaration()) {
+                    String desc = TypeUtil.toDesc(structMemberDeclarationContext.typeName().getText(), imports.get(fileName));
+                    recordDescriptorReferences(fileName, desc);
                     structMembers.add(new FieldNode(Opcodes.ACC_PUBLIC,
-                            structMemberDeclarationContext.memberName().getText(),
-                            TypeUtil.toDesc(structMemberDeclarationContext.typeName().getText(), imports.get(fileName)), null, null));
+                            structMemberDeclarationContext.memberName().getText(), desc, null, null));
                 }
                 classNode.fields = structMembers;
                 //Add the synthetic constructor used by the struct initializer expression
                 classNode.methods.add(generateStructInitializerConstructor(structMembers));
+                structNames.add(typeName);
             }
 
             if (member.moduleSelfImplDeclaration() != null) {
                 ModuleSelfImplDeclarationContext impl = member.moduleSelfImplDeclaration();
                 for (ImplMemberDeclarationContext implMember : impl.implMemberDeclaration()) {
                     MethodImplementationContext method = implMember.methodImplementation();
+                    String desc = TypeUtil.extractMethodDescriptor(method.methodSignature(), imports.get(fileName));
+                    recordDescriptorReferences(fileName, desc);
                     MethodNode methodNode = new MethodNode(
                             Opcodes.ACC_PUBLIC,
                             method.methodSignature().memberName().getText(),
-                            TypeUtil.extractMethodDescriptor(method.methodSignature(), imports.get(fileName)),
+                            desc,
                             null,
                             new String[]{}
                     );
@@ -273,33 +526,35 @@ public class StructureCompiler {
         }
 
         generatedClassNodes.put(typeName, classNode);
+        declaringFiles.put(typeName, fileName);
 
     }
 
     private MethodNode generateStructInitializerConstructor(List<FieldNode> fields) {
-        String args = fields.stream().map(field -> field.desc).collect(Collectors.joining()) + "Ljava/lang/Void;";
-        String desc = "(" + args + ")V";
+        String desc = "(" + fields.stream().map(field -> field.desc).collect(Collectors.joining()) + STRUCT_INITIALIZER_SUFFIX;
         return new MethodNode(Opcodes.ACC_PUBLIC, "<init>", desc, null, new String[0]);
     }
 
-    private void parseSingleFile(String fileName, String content) {
-        AtypicalLexer lexer = new AtypicalLexer(CharStreams.fromString(content));
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        AtypicalParser parser = new AtypicalParser(tokens);
-        FileContext fileContext = parser.file();
-        imports.put(fileName, new HashMap<>());
+    private ParsedFile parseSingleFile(String fileName, CharSequence content) {
+        FileContext fileContext = FileParser.parse(fileName, content);
+        Map<String, String> fileImports = new HashMap<>();
         for (ImportedClassContext importedClass : fileContext.imports().importedClass()) {
-            if(!imports.containsKey(fileName)) {
-                imports.put(fileName, new HashMap<>(Map.of(importedClass.alias.getText(), importedClass.class_.getText().replace(".", "/"))));
-            }else {
-                imports.get(fileName).put(importedClass.alias.getText(), importedClass.class_.getText().replace(".", "/"));
-            }
+            fileImports.put(importedClass.alias.getText(), importedClass.class_.getText().replace(".", "/"));
+        }
+        return new ParsedFile(fileName, fileContext, Collections.unmodifiableMap(fileImports));
+    }
+
+    private void addParsedFile(ParsedFile parsedFile) {
+        String fileName = parsedFile.fileName();
+        imports.put(fileName, new HashMap<>(parsedFile.imports()));
+        for (String importedClass : parsedFile.imports().values()) {
+            recordReference(fileName, importedClass);
         }
         this.modules.put(fileName, new HashSet<>());
         this.traits.put(fileName, new HashSet<>());
         this.impls.put(fileName, new HashSet<>());
         this.structs.put(fileName, new HashSet<>());
-        for (FileMemberContext fileMemberContext : fileContext.fileMember()) {
+        for (FileMemberContext fileMemberContext : parsedFile.fileContext().fileMember()) {
             if(fileMemberContext.moduleDeclaration() != null)this.modules.get(fileName).add(fileMemberContext.moduleDeclaration());
             if(fileMemberContext.traitDeclaration() != null)this.traits.get(fileName).add(fileMemberContext.traitDeclaration());
             if(fileMemberContext.implDeclaration() != null) {
@@ -309,11 +564,16 @@ public class StructureCompiler {
                 String traitTypeName = imports.get(fileName).getOrDefault(implDeclarationContext.itf.getText(),
                         implDeclarationContext.itf.getText());
                 implementedTraitsForStruct.computeIfAbsent(structTypeName, (s) -> new HashSet<>()).add(traitTypeName);
+                recordReference(fileName, structTypeName);
+                recordReference(fileName, traitTypeName);
 
                 this.impls.get(fileName).add(fileMemberContext.implDeclaration());
             }
             if(fileMemberContext.structDeclaration() != null) {
                 structs.get(fileName).add(fileMemberContext.structDeclaration());
+                if (fileMemberContext.structDeclaration().COLUMNAR() != null) {
+                    columnarStructs.add(fileMemberContext.structDeclaration().typeName().getText());
+                }
             }
 
             if(fileMemberContext.methodImplementation() != null) {
@@ -327,6 +587,66 @@ public class StructureCompiler {
 
     }
 
+    /**
+     * Result of lexing and parsing a single input file, does not depend on any other file.
+     */
+    private record ParsedFile(String fileName, FileContext fileContext, Map<String, String> imports) {
+
+    }
+
+    /**
+     * @return the generated ClassNode for the given internal name or the one of the library class, null if neither exists
+     */
+    public ClassNode getClassNode(String internalName) {
+        ClassNode classNode = generatedClassNodes.get(internalName);
+        if (classNode != null) return classNode;
+        return classRepository.getClassNode(internalName);
+    }
+
+    /**
+     * Records that the code compiled for the given file depends on the declaration of the given type.
+     */
+    public void recordReference(String fileName, String internalName) {
+        referencedTypes.computeIfAbsent(fileName, f -> ConcurrentHashMap.newKeySet()).add(internalName);
+    }
+
+    /**
+     * Records all class types that appear in the given field or method descriptor.
+     */
+    public void recordDescriptorReferences(String fileName, String desc) {
+        int start = desc.indexOf('L');
+        while (start >= 0) {
+            int end = desc.indexOf(';', start);
+            recordReference(fileName, desc.substring(start + 1, end));
+            start = desc.indexOf('L', end);
+        }
+    }
+
+    /**
+     * @return whether the class is a struct (or a module with a struct) declared by an Atypical source, library
+     * classes never are
+     */
+    public boolean isStruct(String internalName) {
+        return structNames.contains(internalName);
+    }
+
+    /**
+     * @return whether the class has the constructor of a struct initializer, only meaningful for classes known to be
+     * generated from Atypical sources, e.g. the previous output of an incremental build
+     */
+    public static boolean hasStructInitializer(ClassNode classNode) {
+        return classNode != null && classNode.methods != null && classNode.methods.stream()
+                .anyMatch(method -> method.name.equals("<init>") && method.desc.endsWith(STRUCT_INITIALIZER_SUFFIX));
+    }
+
+    /**
+     * @return the columnar struct the given class is the container of, null if it is none
+     */
+    public String getColumnarStruct(String internalName) {
+        String structName = ColumnarContainerCompiler.getStructName(internalName);
+        return structName != null && columnarStructs.contains(structName) ? structName : null;
+    }
+
     public boolean isClassNameImplClass(String className){
         for (Entry<String, Set<ImplDeclarationContext>> entry : impls.entrySet()) {
             for (ImplDeclarationContext implDeclarationContext : entry.getValue()) {
@@ -1,6 +1,7 @@
 package me.pr3.atypical.compiler.expression;
 
 import me.pr3.atypical.compiler.typing.Type;
+import me.pr3.atypical.compiler.util.NumericUtil;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
@@ -14,133 +15,59 @@ public class ArithmeticExpressionCompiler {
     }
 
     public ExpressionCompiler.Result compileArithmeticExpression(me.pr3.atypical.generated.AtypicalParser.ExpressionContext context) {
-        Type returnType = Type.VOID;
         ExpressionCompiler.Result lhs = expressionCompiler.compilePostfixExpression(context.postfixExpression(), false);
-        returnType = lhs.returnType();
-        InsnList insnList = new InsnList();
-        insnList.add(lhs.insnList());
-
-        ExpressionCompiler.Result rhs = expressionCompiler.compileExpression(context.expression());
-        insnList.add(rhs.insnList());
-
-        if(context.ADD() != null){
-
-            switch (lhs.returnType().getKind()){
-                case Type.Kind.INT:
-                    insnList.add(new InsnNode(Opcodes.IADD));
-                    break;
-                case Type.Kind.FLOAT:
-                    insnList.add(new InsnNode(Opcodes.FADD));
-                    break;
-                case Type.Kind.LONG:
-                    insnList.add(new InsnNode(Opcodes.LADD));
-                    break;
-                case Type.Kind.BOOLEAN:
-                    insnList.add(new InsnNode(Opcodes.DADD));
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported type for addition: " + lhs.returnType());
-            }
-            return new ExpressionCompiler.Result(insnList, returnType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
-        }
-
-        if(context.SUB() != null){
-            switch (lhs.returnType().getKind()){
-                case Type.Kind.INT:
-                    insnList.add(new InsnNode(Opcodes.ISUB));
-                    break;
-                case Type.Kind.FLOAT:
-                    insnList.add(new InsnNode(Opcodes.FSUB));
-                    break;
-                case Type.Kind.LONG:
-                    insnList.add(new InsnNode(Opcodes.LSUB));
-                    break;
-                case Type.Kind.BOOLEAN:
-                    insnList.add(new InsnNode(Opcodes.DSUB));
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported type for subtraction: " + lhs.returnType());
-            }
-            return new ExpressionCompiler.Result(insnList, returnType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
+        if (context.ADD() != null && StringConcatCompiler.isString(lhs.returnType())) {
+            return StringConcatCompiler.compileConcatenation(lhs, compileConcatenationOperands(context.expression()));
         }
+        ExpressionCompiler.Result rhs = expressionCompiler.compileExpression(context.expression());
 
-        if(context.MUL() != null){
-            switch (lhs.returnType().getKind()){
-                case Type.Kind.INT:
-                    insnList.add(new InsnNode(Opcodes.IMUL));
-                    break;
-                case Type.Kind.FLOAT:
-                    insnList.add(new InsnNode(Opcodes.FMUL));
-                    break;
-                case Type.Kind.LONG:
-                    insnList.add(new InsnNode(Opcodes.LMUL));
-                    break;
-                case Type.Kind.BOOLEAN:
-                    insnList.add(new InsnNode(Opcodes.DMUL));
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported type for multiplication: " + lhs.returnType());
-            }
-            return new ExpressionCompiler.Result(insnList, returnType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
+        int intOpcode;
+        String operation;
+        if (context.ADD() != null) {
+            intOpcode = Opcodes.IADD;
+            operation = "addition";
+        } else if (context.SUB() != null) {
+            intOpcode = Opcodes.ISUB;
+            operation = "subtraction";
+        } else if (context.MUL() != null) {
+            intOpcode = Opcodes.IMUL;
+            operation = "multiplication";
+        } else if (context.DIV() != null) {
+            intOpcode = Opcodes.IDIV;
+            operation = "division";
+        } else if (context.MOD() != null) {
+            intOpcode = Opcodes.IREM;
+            operation = "modulus";
+        } else {
+            return null;
         }
 
-        if(context.DIV() != null){
-            switch (lhs.returnType().getKind()){
-                case Type.Kind.INT:
-                    insnList.add(new InsnNode(Opcodes.IDIV));
-                    break;
-                case Type.Kind.FLOAT:
-                    insnList.add(new InsnNode(Opcodes.FDIV));
-                    break;
-                case Type.Kind.LONG:
-                    insnList.add(new InsnNode(Opcodes.LDIV));
-                    break;
-                case Type.Kind.BOOLEAN:
-                    insnList.add(new InsnNode(Opcodes.DDIV));
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported type for division: " + lhs.returnType());
-            }
-            return new ExpressionCompiler.Result(insnList, returnType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
+        if (context.ADD() != null && (StringConcatCompiler.isString(lhs.returnType()) || StringConcatCompiler.isString(rhs.returnType()))) {
+            return StringConcatCompiler.compileConcatenation(lhs, rhs);
         }
 
-        if(context.MOD() != null){
-            switch (lhs.returnType().getKind()){
-                case Type.Kind.INT:
-                    insnList.add(new InsnNode(Opcodes.IREM));
-                    break;
-                case Type.Kind.FLOAT:
-                    insnList.add(new InsnNode(Opcodes.FREM));
-                    break;
-                case Type.Kind.LONG:
-                    insnList.add(new InsnNode(Opcodes.LREM));
-                    break;
-                case Type.Kind.BOOLEAN:
-                    insnList.add(new InsnNode(Opcodes.DREM));
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported type for modulus: " + lhs.returnType());
-            }
-            return new ExpressionCompiler.Result(insnList, returnType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
-        }
-
-
-        if(context.LOGIC_AND() != null){
-            if(lhs.returnType().getKind() != Type.Kind.BOOLEAN || rhs.returnType().getKind() != Type.Kind.BOOLEAN){
-                throw new IllegalStateException("Logical AND operation requires boolean types");
-            }
-            insnList.add(new InsnNode(Opcodes.IAND));
-            return new ExpressionCompiler.Result(insnList, Type.BOOLEAN, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
+        //Both operands are converted to the wider of the two types, byte, short and char are computed as int
+        Type returnType = NumericUtil.promote(lhs.returnType(), rhs.returnType());
+        if (returnType == null) {
+            throw new IllegalStateException("Unsupported types for " + operation + ": " + lhs.returnType() + " and " + rhs.returnType());
         }
+        InsnList insnList = new InsnList();
+        insnList.add(lhs.insnList());
+        insnList.add(NumericUtil.convert(lhs.returnType(), returnType));
+        insnList.add(rhs.insnList());
+        insnList.add(NumericUtil.convert(rhs.returnType(), returnType));
+        insnList.add(new InsnNode(returnType.getOpcode(intOpcode)));
+        return new ExpressionCompiler.Result(insnList, returnType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
+    }
 
-        if(context.LOGIC_OR() != null){
-            if(lhs.returnType().getKind() != Type.Kind.BOOLEAN || rhs.returnType().getKind() != Type.Kind.BOOLEAN){
-                throw new IllegalStateException("Logical OR operation requires boolean types");
-            }
-            insnList.add(new InsnNode(Opcodes.IOR));
-            return new ExpressionCompiler.Result(insnList, Type.BOOLEAN, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
-        }
-        return null;
+    /**
+     * Compiles the rest of a chain of + that follows a string, every operand is appended on its own instead of being
+     * added to the operands after it first, so "b=" + b + (2 < 1) is "b=5false" and not byte + bool.
+     */
+    private ExpressionCompiler.Result compileConcatenationOperands(me.pr3.atypical.generated.AtypicalParser.ExpressionContext context) {
+        if (context.ADD() == null) return expressionCompiler.compileExpression(context);
+        ExpressionCompiler.Result operand = expressionCompiler.compilePostfixExpression(context.postfixExpression(), false);
+        return StringConcatCompiler.compileConcatenation(operand, compileConcatenationOperands(context.expression()));
     }
 
 }
@@ -4,14 +4,17 @@ import me.pr3.atypical.compiler.MethodCompiler;
 import me.pr3.atypical.compiler.StructureCompiler;
 import me.pr3.atypical.compiler.expression.ExpressionCompiler.Result;
 import me.pr3.atypical.compiler.typing.Type;
-import me.pr3.atypical.compiler.util.ClassNodeUtil;
+import me.pr3.atypical.compiler.util.NumericUtil;
 import me.pr3.atypical.compiler.util.TypeUtil;
 import me.pr3.atypical.generated.AtypicalParser;
+import me.pr3.atypical.runtime.TraitCastBootstrap;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
 import java.lang.reflect.Modifier;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * @author tim
@@ -34,73 +37,74 @@ public class CastExpressionCompiler {
         String castTypeName = context.typeName().getText();
         String fullyQualifiedTypeName = TypeUtil.extractTypeNameFromDescriptor(TypeUtil.toDesc(castTypeName, structureCompiler.imports.get(methodCompiler.fileName)));
         Result expressionResult = expressionCompiler.compileExpression(context.expression());
-        insnList.add(expressionResult.insnList());
+        Type operandType = expressionResult.returnType();
+        Type castType = Type.fromDescriptor(TypeUtil.toDesc(castTypeName, structureCompiler.imports.get(methodCompiler.fileName)));
+        if (NumericUtil.isNumeric(castType)) {
+            //Numeric casts convert the value, narrowing ones cut off the high bits like in Java
+            if (!NumericUtil.isNumeric(operandType)) {
+                throw new IllegalStateException("Cannot cast " + operandType + " to " + castType + " at: " + context.getText());
+            }
+            insnList.add(expressionResult.insnList());
+            insnList.add(NumericUtil.convert(operandType, castType));
+            return new Result(insnList, castType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
+        }
         if (!isTypeTrait(fullyQualifiedTypeName)) {
+            insnList.add(expressionResult.insnList());
             insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, fullyQualifiedTypeName));
-
+        } else if (isStaticallyKnownStruct(operandType)) {
+            //The struct is known at compile time, so the impl class can be instantiated directly
+            String structName = operandType.getInternalName();
+            insnList.add(expressionResult.insnList());
+            if (!implementsInterface(structName, fullyQualifiedTypeName)) {
+                if (!structureCompiler.implementedTraitsForStruct.getOrDefault(structName, Set.of()).contains(fullyQualifiedTypeName)) {
+                    throw new IllegalStateException("Cannot cast " + structName + " to trait " + fullyQualifiedTypeName
+                            + " as there is no impl " + fullyQualifiedTypeName + " for " + structName + " at: " + context.getText());
+                }
+                String implClassName = fullyQualifiedTypeName + "$" + structName.replace("/", "_");
+                insnList.insert(new InsnNode(Opcodes.DUP));
+                insnList.insert(new TypeInsnNode(Opcodes.NEW, implClassName));
+                insnList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, implClassName, "<init>", "(" + operandType + ")V"));
+            }
         } else {
-            //Generates the following java code:
-            /*
-            (Cloneable)Class.forName(x.getClass().getName().replace(".", "/") + "$Cloneable").getDeclaredConstructor(x.getClass()).newInstance(x);
-             */
-            //for the simple atp code: (Cloneable)x
-            //This is required for trait implementations to ensure that we get the correct implementation for our struct.
-            //We do this by first getting the Name of the Trait implementation class from the class name of the object
-            //we want to cast, then from that the implementation class, on which we then use reflection to invoke the
-            //ImplConstructor. We then can invoke methods on the Trait type as all Trait Implementations implement
-            //their trait as an interface.
-            insnList.add(new InsnNode(Opcodes.DUP));
-            insnList.add(new InsnNode(Opcodes.DUP));
-            insnList.add(new TypeInsnNode(Opcodes.NEW, "java/lang/StringBuffer"));
-            insnList.add(new InsnNode(Opcodes.DUP));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, "java/lang/StringBuffer", "<init>", "()V"));
-            // first append the "$" + fullyQualifiedTypeName
-            insnList.add(new LdcInsnNode(fullyQualifiedTypeName.replace("/", ".") + "$"));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuffer", "append", "(Ljava/lang/String;)Ljava/lang/StringBuffer;"));
-            // then append the object's class name (getClass().getName().replace(".", "/"))
-            insnList.add(new InsnNode(Opcodes.SWAP));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;"));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "getName", "()Ljava/lang/String;"));
-            insnList.add(new LdcInsnNode("."));
-            insnList.add(new LdcInsnNode("_"));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/String", "replace",
-                    "(Ljava/lang/CharSequence;Ljava/lang/CharSequence;)Ljava/lang/String;"));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuffer", "append",
-                    "(Ljava/lang/String;)Ljava/lang/StringBuffer;"));
-            // toString and continue
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuffer", "toString", "()Ljava/lang/String;"));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;"));
-            insnList.add(new InsnNode(Opcodes.SWAP));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;"));
-            insnList.add(new InsnNode(Opcodes.ICONST_1));
-            insnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Class"));
-            insnList.add(new InsnNode(Opcodes.DUP));
-            insnList.add(new InsnNode(Opcodes.DUP2_X1));
-            insnList.add(new InsnNode(Opcodes.POP2));
-            insnList.add(new InsnNode(Opcodes.ICONST_0));
-            insnList.add(new InsnNode(Opcodes.SWAP));
-            insnList.add(new InsnNode(Opcodes.AASTORE));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "getDeclaredConstructor", "([Ljava/lang/Class;)Ljava/lang/reflect/Constructor;"));
-            insnList.add(new InsnNode(Opcodes.SWAP));
-            insnList.add(new InsnNode(Opcodes.ICONST_1));
-            insnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"));
-            insnList.add(new InsnNode(Opcodes.DUP));
-            insnList.add(new InsnNode(Opcodes.DUP2_X1));
-            insnList.add(new InsnNode(Opcodes.POP2));
-            insnList.add(new InsnNode(Opcodes.ICONST_0));
-            insnList.add(new InsnNode(Opcodes.SWAP));
-            insnList.add(new InsnNode(Opcodes.AASTORE));
-            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/reflect/Constructor", "newInstance", "([Ljava/lang/Object;)Ljava/lang/Object;"));
-            insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, fullyQualifiedTypeName));
+            //The operand is typed as obj or as another trait, so the impl class has to be picked at runtime
+            //from the class of the value (Trait$Struct). The impl constructor is looked up once per receiver
+            //class by the invokedynamic bootstrap, after that the call site runs through its inline cache.
+            insnList.add(expressionResult.insnList());
+            Handle bootstrap = new Handle(Opcodes.H_INVOKESTATIC,
+                    TraitCastBootstrap.INTERNAL_NAME,
+                    "bootstrap",
+                    TraitCastBootstrap.BOOTSTRAP_DESC,
+                    false);
+            insnList.add(new InvokeDynamicInsnNode("cast",
+                    "(Ljava/lang/Object;)" + TypeUtil.toDesc(fullyQualifiedTypeName),
+                    bootstrap));
         }
         resultType = Type.fromDescriptor(TypeUtil.toDesc(fullyQualifiedTypeName));
         return new Result(insnList, resultType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
     }
 
     private boolean isTypeTrait(String typeName) {
-        ClassNode classNode = structureCompiler.generatedClassNodes.get(typeName);
-        if (classNode == null) classNode = ClassNodeUtil.loadClassNodeFromJDKCLasses(typeName);
+        ClassNode classNode = getClassNode(typeName);
         return Modifier.isInterface(classNode.access);
     }
 
+    /**
+     * Whether the type is a struct declared by an Atypical source, anything typed as obj, as a trait, as a library
+     * class or as null has to go through the dynamic lookup.
+     */
+    private boolean isStaticallyKnownStruct(Type type) {
+        if (type.getKind() != Type.Kind.OBJECT || type.isArrayType() || type.isStaticType()) return false;
+        return structureCompiler.isStruct(type.getInternalName());
+    }
+
+    private boolean implementsInterface(String typeName, String interfaceName) {
+        ClassNode classNode = getClassNode(typeName);
+        return classNode.interfaces != null && classNode.interfaces.contains(interfaceName);
+    }
+
+    private ClassNode getClassNode(String typeName) {
+        structureCompiler.recordReference(methodCompiler.fileName, typeName);
+        return structureCompiler.getClassNode(typeName);
+    }
+
 }
@@ -1,6 +1,7 @@
 package me.pr3.atypical.compiler.expression;
 
 import me.pr3.atypical.compiler.typing.Type;
+import me.pr3.atypical.compiler.util.NumericUtil;
 import me.pr3.atypical.generated.AtypicalParser;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.InsnList;
@@ -18,18 +19,12 @@ public class CmpExpressionCompiler {
     }
 
     public ExpressionCompiler.Result compileCmpExpression(AtypicalParser.ExpressionContext context) {
-
-
-        ExpressionCompiler.Result lhs = expressionCompiler.compilePostfixExpression(context.postfixExpression(), false);
+        Comparison comparison = compileComparison(context);
         InsnList insnList = new InsnList();
-        insnList.add(lhs.insnList());
-
-        ExpressionCompiler.Result rhs = expressionCompiler.compileExpression(context.expression());
-        int opcode = getCompareOpcode(context, lhs.returnType(), rhs.returnType());
-        insnList.add(rhs.insnList());
+        insnList.add(comparison.insnList());
         LabelNode trueLabel = new LabelNode();
         LabelNode endLabel = new LabelNode();
-        insnList.add(new JumpInsnNode(opcode, trueLabel));
+        insnList.add(new JumpInsnNode(comparison.jumpOpcode(), trueLabel));
         insnList.add(new InsnNode(Opcodes.ICONST_0));
         insnList.add(new JumpInsnNode(Opcodes.GOTO, endLabel));
         insnList.add(trueLabel);
@@ -38,10 +33,45 @@ public class CmpExpressionCompiler {
         return new ExpressionCompiler.Result(insnList, Type.BOOLEAN, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
     }
 
+    /**
+     * Compiles both operands and everything needed to compare them, the comparison is true if the returned jump is
+     * taken. Numeric operands are converted to the wider type first, long, float and double are compared with
+     * LCMP, FCMPx or DCMPx and a jump on the result.
+     */
+    public Comparison compileComparison(AtypicalParser.ExpressionContext context) {
+        ExpressionCompiler.Result lhs = expressionCompiler.compilePostfixExpression(context.postfixExpression(), false);
+        ExpressionCompiler.Result rhs = expressionCompiler.compileExpression(context.expression());
+        InsnList insnList = new InsnList();
+        Type type = NumericUtil.promote(lhs.returnType(), rhs.returnType());
+        if (type == null) {
+            insnList.add(lhs.insnList());
+            insnList.add(rhs.insnList());
+            return new Comparison(insnList, getCompareOpcode(context, lhs.returnType(), rhs.returnType()));
+        }
+        insnList.add(lhs.insnList());
+        insnList.add(NumericUtil.convert(lhs.returnType(), type));
+        insnList.add(rhs.insnList());
+        insnList.add(NumericUtil.convert(rhs.returnType(), type));
+        if (type.getKind() == Type.Kind.INT) {
+            return new Comparison(insnList, getCompareOpcode(context, type, type));
+        }
+        //NaN has to make < and > false, so < uses the compare giving 1 for NaN and > the one giving -1
+        insnList.add(new InsnNode(switch (type.getKind()) {
+            case LONG -> Opcodes.LCMP;
+            case FLOAT -> context.CMPLT() != null ? Opcodes.FCMPG : Opcodes.FCMPL;
+            default -> context.CMPLT() != null ? Opcodes.DCMPG : Opcodes.DCMPL;
+        }));
+        if (context.CMPEQ() != null) return new Comparison(insnList, Opcodes.IFEQ);
+        if (context.CMPNE() != null) return new Comparison(insnList, Opcodes.IFNE);
+        if (context.CMPGT() != null) return new Comparison(insnList, Opcodes.IFGT);
+        if (context.CMPLT() != null) return new Comparison(insnList, Opcodes.IFLT);
+        throw new IllegalStateException("Unknown comparison operator");
+    }
+
     public int getCompareOpcode(AtypicalParser.ExpressionContext context, Type lhsType, Type rhsType) {
         if (context.CMPEQ() != null) {
             switch (lhsType.getKind()) {
-                case Type.Kind.INT:
+                case Type.Kind.INT, Type.Kind.BOOLEAN:
                     return Opcodes.IF_ICMPEQ;
                 default:
                     return Opcodes.IF_ACMPEQ;
@@ -49,7 +79,7 @@ public class CmpExpressionCompiler {
         }
         if (context.CMPNE() != null) {
             switch (lhsType.getKind()) {
-                case Type.Kind.INT:
+                case Type.Kind.INT, Type.Kind.BOOLEAN:
                     return Opcodes.IF_ICMPNE;
                 default:
                     return Opcodes.IF_ACMPNE;
@@ -75,4 +105,11 @@ public class CmpExpressionCompiler {
 
     }
 
+    /**
+     * @param jumpOpcode the conditional jump taken if the comparison is true
+     */
+    public record Comparison(InsnList insnList, int jumpOpcode) {
+
+    }
+
 }
@@ -0,0 +1,99 @@
+package me.pr3.atypical.compiler.expression;
+
+import me.pr3.atypical.compiler.typing.Type;
+import me.pr3.atypical.compiler.util.OpcodeUtil;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+
+import static me.pr3.atypical.generated.AtypicalParser.*;
+
+/**
+ * Compiles boolean expressions into conditional jumps instead of values. Comparisons become a single compare and
+ * jump, <code>&&</code> and <code>||</code> only evaluate their right side if the left side does not decide the
+ * result already, so <code>(node != null) && (node.value > 0)</code> never dereferences null.
+ *
+ * @author tim
+ */
+public class ConditionCompiler {
+
+    private final ExpressionCompiler expressionCompiler;
+
+    public ConditionCompiler(ExpressionCompiler expressionCompiler) {
+        this.expressionCompiler = expressionCompiler;
+    }
+
+    /**
+     * @return instructions that jump to target if the condition evaluates to jumpIf and fall through otherwise
+     */
+    public InsnList compileJump(ExpressionContext context, LabelNode target, boolean jumpIf) {
+        InsnList insnList = new InsnList();
+        ConstantEvaluator.Constant constant = expressionCompiler.methodCompiler.getConstantEvaluator().evaluate(context);
+        if (constant != null && constant.value() instanceof Boolean value) {
+            if (value == jumpIf) insnList.add(new JumpInsnNode(Opcodes.GOTO, target));
+            return insnList;
+        }
+        if (context.LOGIC_AND() != null || context.LOGIC_OR() != null) {
+            //a && b jumps if false when a is false, a || b jumps if true when a is true, otherwise b decides
+            boolean leftDecidesWhen = context.LOGIC_OR() != null;
+            if (leftDecidesWhen == jumpIf) {
+                insnList.add(compileJump(context.postfixExpression(), target, jumpIf));
+                insnList.add(compileJump(context.expression(), target, jumpIf));
+            } else {
+                LabelNode rightSkipped = new LabelNode();
+                insnList.add(compileJump(context.postfixExpression(), rightSkipped, leftDecidesWhen));
+                insnList.add(compileJump(context.expression(), target, jumpIf));
+                insnList.add(rightSkipped);
+            }
+            return insnList;
+        }
+        if (context.CMPLT() != null || context.CMPGT() != null || context.CMPNE() != null || context.CMPEQ() != null) {
+            CmpExpressionCompiler cmpExpressionCompiler = new CmpExpressionCompiler(expressionCompiler);
+            CmpExpressionCompiler.Comparison comparison = cmpExpressionCompiler.compileComparison(context);
+            int opcode = comparison.jumpOpcode();
+            insnList.add(comparison.insnList());
+            //Inverting the jump after a float compare keeps NaN correct, as the compare result itself is unchanged
+            insnList.add(new JumpInsnNode(jumpIf ? opcode : OpcodeUtil.invertJump(opcode), target));
+            return insnList;
+        }
+        if (context.expression() == null) {
+            return compileJump(context.postfixExpression(), target, jumpIf);
+        }
+        return compileValueJump(expressionCompiler.compileExpression(context), context.getText(), target, jumpIf);
+    }
+
+    private InsnList compileJump(PostfixExpressionContext context, LabelNode target, boolean jumpIf) {
+        if (context.postfixOperator().isEmpty() && context.primary().parenthesesExpression() != null) {
+            return compileJump(context.primary().parenthesesExpression().expression(), target, jumpIf);
+        }
+        return compileValueJump(expressionCompiler.compilePostfixExpression(context, false), context.getText(), target, jumpIf);
+    }
+
+    private InsnList compileValueJump(ExpressionCompiler.Result result, String text, LabelNode target, boolean jumpIf) {
+        if (result.returnType().getKind() != Type.Kind.BOOLEAN) {
+            throw new IllegalStateException("Condition did not evaluate to boolean: " + text);
+        }
+        InsnList insnList = new InsnList();
+        insnList.add(result.insnList());
+        insnList.add(new JumpInsnNode(jumpIf ? Opcodes.IFNE : Opcodes.IFEQ, target));
+        return insnList;
+    }
+
+    /**
+     * Materializes a condition as 0 or 1, for conditions that are used as a value.
+     */
+    public InsnList compileValue(ExpressionContext context) {
+        InsnList insnList = new InsnList();
+        LabelNode falseLabel = new LabelNode();
+        LabelNode endLabel = new LabelNode();
+        insnList.add(compileJump(context, falseLabel, false));
+        insnList.add(new InsnNode(Opcodes.ICONST_1));
+        insnList.add(new JumpInsnNode(Opcodes.GOTO, endLabel));
+        insnList.add(falseLabel);
+        insnList.add(new InsnNode(Opcodes.ICONST_0));
+        insnList.add(endLabel);
+        return insnList;
+    }
+}
@@ -0,0 +1,217 @@
+package me.pr3.atypical.compiler.expression;
+
+import me.pr3.atypical.compiler.MethodCompiler;
+import me.pr3.atypical.compiler.typing.Type;
+import me.pr3.atypical.compiler.util.NumericUtil;
+import me.pr3.atypical.compiler.util.OpcodeUtil;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+
+import java.util.*;
+
+import static me.pr3.atypical.generated.AtypicalParser.*;
+
+/**
+ * Evaluates expressions made of numeric and bool constants at compile time. Constants are literals, locals that are
+ * declared once with a constant value and never assigned again, and the arithmetic, comparison and logic operators
+ * on them. Operators are applied in the same (right recursive) order the expression is compiled in, an int or long
+ * division or modulus by zero is left to fail at runtime.
+ *
+ * @author tim
+ */
+public class ConstantEvaluator {
+
+    private final MethodCompiler methodCompiler;
+    //Sub expressions are evaluated again for every enclosing expression that is compiled
+    private final Map<ExpressionContext, Optional<Constant>> evaluatedExpressions = new HashMap<>();
+
+    public ConstantEvaluator(MethodCompiler methodCompiler) {
+        this.methodCompiler = methodCompiler;
+    }
+
+    /**
+     * @return the value of the expression or null if it is not a compile time constant
+     */
+    public Constant evaluate(ExpressionContext context) {
+        Optional<Constant> constant = evaluatedExpressions.get(context);
+        if (constant == null) {
+            constant = Optional.ofNullable(evaluateExpression(context));
+            evaluatedExpressions.put(context, constant);
+        }
+        return constant.orElse(null);
+    }
+
+    private Constant evaluateExpression(ExpressionContext context) {
+        if (context.ASSIGN() != null) return null;
+        Constant lhs = evaluatePostfixExpression(context.postfixExpression());
+        if (lhs == null || context.expression() == null) return lhs;
+        Constant rhs = evaluate(context.expression());
+        if (rhs == null) return null;
+
+        Type type = NumericUtil.promote(lhs.type(), rhs.type());
+        if (type != null) {
+            return evaluateNumeric(context, type, (Number) lhs.value(), (Number) rhs.value());
+        }
+        if (lhs.type().equals(Type.BOOLEAN) && rhs.type().equals(Type.BOOLEAN)) {
+            boolean a = (boolean) lhs.value();
+            boolean b = (boolean) rhs.value();
+            if (context.LOGIC_AND() != null) return new Constant(Type.BOOLEAN, a && b);
+            if (context.LOGIC_OR() != null) return new Constant(Type.BOOLEAN, a || b);
+        }
+        return null;
+    }
+
+    private Constant evaluateNumeric(ExpressionContext context, Type type, Number lhs, Number rhs) {
+        if (context.CMPEQ() != null || context.CMPNE() != null || context.CMPLT() != null || context.CMPGT() != null) {
+            //Ints and longs compare exactly as long, floats and doubles after rounding to the promoted type like
+            //FCMPL and DCMPL do (with NaN unequal to everything), widening the rounded floats to double is exact
+            boolean integral = type.equals(Type.INT) || type.equals(Type.LONG);
+            double a = type.equals(Type.FLOAT) ? lhs.floatValue() : lhs.doubleValue();
+            double b = type.equals(Type.FLOAT) ? rhs.floatValue() : rhs.doubleValue();
+            int comparison = integral ? Long.compare(lhs.longValue(), rhs.longValue()) : compare(a, b);
+            boolean unordered = !integral && (Double.isNaN(a) || Double.isNaN(b));
+            if (context.CMPEQ() != null) return new Constant(Type.BOOLEAN, !unordered && comparison == 0);
+            if (context.CMPNE() != null) return new Constant(Type.BOOLEAN, unordered || comparison != 0);
+            if (context.CMPLT() != null) return new Constant(Type.BOOLEAN, !unordered && comparison < 0);
+            return new Constant(Type.BOOLEAN, !unordered && comparison > 0);
+        }
+        switch (type.getKind()) {
+            case INT -> {
+                int a = lhs.intValue();
+                int b = rhs.intValue();
+                if (context.ADD() != null) return new Constant(type, a + b);
+                if (context.SUB() != null) return new Constant(type, a - b);
+                if (context.MUL() != null) return new Constant(type, a * b);
+                if (context.DIV() != null) return b == 0 ? null : new Constant(type, a / b);
+                if (context.MOD() != null) return b == 0 ? null : new Constant(type, a % b);
+            }
+            case LONG -> {
+                long a = lhs.longValue();
+                long b = rhs.longValue();
+                if (context.ADD() != null) return new Constant(type, a + b);
+                if (context.SUB() != null) return new Constant(type, a - b);
+                if (context.MUL() != null) return new Constant(type, a * b);
+                if (context.DIV() != null) return b == 0 ? null : new Constant(type, a / b);
+                if (context.MOD() != null) return b == 0 ? null : new Constant(type, a % b);
+            }
+            case FLOAT -> {
+                float a = lhs.floatValue();
+                float b = rhs.floatValue();
+                if (context.ADD() != null) return new Constant(type, a + b);
+                if (context.SUB() != null) return new Constant(type, a - b);
+                if (context.MUL() != null) return new Constant(type, a * b);
+                if (context.DIV() != null) return new Constant(type, a / b);
+                if (context.MOD() != null) return new Constant(type, a % b);
+            }
+            case DOUBLE -> {
+                double a = lhs.doubleValue();
+                double b = rhs.doubleValue();
+                if (context.ADD() != null) return new Constant(type, a + b);
+                if (context.SUB() != null) return new Constant(type, a - b);
+                if (context.MUL() != null) return new Constant(type, a * b);
+                if (context.DIV() != null) return new Constant(type, a / b);
+                if (context.MOD() != null) return new Constant(type, a % b);
+            }
+            default -> {
+            }
+        }
+        return null;
+    }
+
+    private static int compare(double a, double b) {
+        return a < b ? -1 : a > b ? 1 : 0;
+    }
+
+    private Constant evaluatePostfixExpression(PostfixExpressionContext context) {
+        if (!context.postfixOperator().isEmpty()) return null;
+        PrimaryContext primary = context.primary();
+        if (primary.literal() != null && primary.literal().NUMBER() != null) {
+            return parseNumberLiteral(primary.literal().NUMBER().getText());
+        }
+        if (primary.parenthesesExpression() != null) {
+            return evaluate(primary.parenthesesExpression().expression());
+        }
+        if (primary.memberOrVariableName() != null && methodCompiler.containsLocalVarWithName(primary.memberOrVariableName().getText())) {
+            return methodCompiler.localConstants.get(methodCompiler.getLocalVarIndexByName(primary.memberOrVariableName().getText()));
+        }
+        return null;
+    }
+
+    /**
+     * Literals without a suffix are int, or double if they have a fraction. The suffixes l, f and d make them long,
+     * float or double.
+     */
+    public static Constant parseNumberLiteral(String literal) {
+        char suffix = Character.toLowerCase(literal.charAt(literal.length() - 1));
+        String digits = Character.isDigit(suffix) ? literal : literal.substring(0, literal.length() - 1);
+        try {
+            return switch (suffix) {
+                case 'l' -> new Constant(Type.LONG, Long.parseLong(digits));
+                case 'f' -> new Constant(Type.FLOAT, Float.parseFloat(digits));
+                case 'd' -> new Constant(Type.DOUBLE, Double.parseDouble(digits));
+                default -> digits.contains(".")
+                        ? new Constant(Type.DOUBLE, Double.parseDouble(digits))
+                        : new Constant(Type.INT, Integer.parseInt(digits));
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Number literal out of range: " + literal);
+        }
+    }
+
+    /**
+     * @return the names of the locals that are declared exactly once and never assigned afterwards, only those can
+     * be replaced by their value
+     */
+    public static Set<String> findSingleAssignmentLocals(MethodImplementationContext method) {
+        Map<String, Integer> declarations = new HashMap<>();
+        Set<String> assigned = new HashSet<>();
+        if (method.methodSignature().parameterList() != null) {
+            for (ParameterDeclarationContext parameter : method.methodSignature().parameterList().parameterDeclaration()) {
+                assigned.add(parameter.memberName().getText());
+            }
+        }
+        for (StatementContext statement : method.statement()) {
+            collectAssignments(statement, declarations, assigned);
+        }
+        Set<String> locals = new HashSet<>();
+        declarations.forEach((name, count) -> {
+            if (count == 1 && !assigned.contains(name)) locals.add(name);
+        });
+        return locals;
+    }
+
+    private static void collectAssignments(ParseTree tree, Map<String, Integer> declarations, Set<String> assigned) {
+        if (tree instanceof LocalVariableDeclarationExpressionContext declaration) {
+            declarations.merge(declaration.variableName().getText(), 1, Integer::sum);
+        } else if (tree instanceof AsignLocalVariableStatementContext assignment) {
+            assigned.add(assignment.variableName().getText());
+        } else if (tree instanceof IncrementStatementContext increment) {
+            assigned.add(increment.variableName().getText());
+        } else if (tree instanceof ForStatementContext forStatement && forStatement.IN() != null) {
+            assigned.add(forStatement.variableName().getText());
+        } else if (tree instanceof ExpressionContext expression && expression.ASSIGN() != null
+                && expression.postfixExpression().postfixOperator().isEmpty()
+                && expression.postfixExpression().primary().memberOrVariableName() != null) {
+            assigned.add(expression.postfixExpression().primary().memberOrVariableName().getText());
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectAssignments(tree.getChild(i), declarations, assigned);
+        }
+    }
+
+    /**
+     * @param value an Integer for int, a Long for long, a Float for float, a Double for double, a Boolean for bool
+     */
+    public record Constant(Type type, Object value) {
+
+        public AbstractInsnNode toInsn() {
+            if (value instanceof Boolean bool) return new InsnNode(bool ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+            if (value instanceof Long longValue) return OpcodeUtil.pushLong(longValue);
+            if (value instanceof Float floatValue) return OpcodeUtil.pushFloat(floatValue);
+            if (value instanceof Double doubleValue) return OpcodeUtil.pushDouble(doubleValue);
+            return OpcodeUtil.pushInt((int) value);
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package me.pr3.atypical.compiler.expression;
 
+import me.pr3.atypical.compiler.ImplBridgeCompiler;
 import me.pr3.atypical.compiler.MethodCompiler;
 import me.pr3.atypical.compiler.StructureCompiler;
 import me.pr3.atypical.compiler.typing.Descriptor;
 import me.pr3.atypical.compiler.typing.Type;
 import me.pr3.atypical.compiler.util.ClassNodeUtil;
+import me.pr3.atypical.compiler.util.NumericUtil;
 import me.pr3.atypical.compiler.util.TypeUtil;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
@@ -30,12 +32,24 @@ public class ExpressionCompiler {
         Type returnType = Type.VOID;
         String returnFieldName = null;
 
+        ConstantEvaluator.Constant constant = methodCompiler.getConstantEvaluator().evaluate(context);
+        if(constant != null){
+            InsnList insnList = new InsnList();
+            insnList.add(constant.toInsn());
+            return new Result(insnList, constant.type(), Optional.empty(), SourceType.LITERAL);
+        }
+
         if(context.CMPLT() != null ||context.CMPGT() != null || context.CMPNE() != null || context.CMPEQ() != null) {
             CmpExpressionCompiler cmpExpressionCompiler = new CmpExpressionCompiler(this);
             return cmpExpressionCompiler.compileCmpExpression(context);
         }
 
-        if(context.ADD() != null || context.SUB() != null || context.MUL() != null || context.DIV() != null || context.MOD() != null || context.LOGIC_AND() != null || context.LOGIC_OR() != null) {
+        if(context.LOGIC_AND() != null || context.LOGIC_OR() != null) {
+            ConditionCompiler conditionCompiler = new ConditionCompiler(this);
+            return new Result(conditionCompiler.compileValue(context), Type.BOOLEAN, Optional.empty(), SourceType.UNKNOWN);
+        }
+
+        if(context.ADD() != null || context.SUB() != null || context.MUL() != null || context.DIV() != null || context.MOD() != null) {
             ArithmeticExpressionCompiler arithmeticExpressionCompiler = new ArithmeticExpressionCompiler(this);
             return arithmeticExpressionCompiler.compileArithmeticExpression(context);
         }
@@ -48,16 +62,15 @@ public class ExpressionCompiler {
             insnList.add(rhs.insnList());
             if(lhs.sourceType == SourceType.LOCAL_VARIABLE){
                 int localVarIndex = methodCompiler.getLocalVarIndexByName(lhs.memberName.orElseThrow());
-                insnList.add(new VarInsnNode(
-                        switch (rhs.returnType.getKind()) {
-                            case Type.Kind.INT, Type.Kind.BOOLEAN -> Opcodes.ISTORE;
-                            default -> Opcodes.ASTORE;
-                        }, localVarIndex));
+                Type localVarType = methodCompiler.getLocalVarTypeByName(lhs.memberName.orElseThrow());
+                insnList.add(convertForAssignment(rhs.returnType, localVarType, context.expression()));
+                insnList.add(new VarInsnNode(localVarType.getOpcode(Opcodes.ISTORE), localVarIndex));
             }
             if(lhs.sourceType == SourceType.STRUCT_MEMBER){
                 String memberName = lhs.memberName.orElseThrow();
                 String typeName = lhs.returnType.getInternalName();
                 FieldNode fieldNode = ClassNodeUtil.getFieldNodeByName(getClassNodeByName(typeName), memberName);
+                insnList.add(convertForAssignment(rhs.returnType, Type.fromDescriptor(fieldNode.desc), context.expression()));
                 insnList.add(new FieldInsnNode(
                         Opcodes.PUTFIELD,
                         typeName,
@@ -65,14 +78,19 @@ public class ExpressionCompiler {
                         fieldNode.desc
                 ));
             }
+            if(lhs.sourceType == SourceType.COLUMN){
+                insnList.add(convertForAssignment(rhs.returnType, lhs.returnType, context.expression()));
+                insnList.add(new InsnNode(lhs.returnType.getOpcode(Opcodes.IASTORE)));
+            }
+            if(lhs.sourceType == SourceType.COLUMNAR_ELEMENT){
+                String containerName = lhs.returnType.getInternalName();
+                String structName = structureCompiler.getColumnarStruct(containerName);
+                insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, containerName, "set", "(IL" + structName + ";)V"));
+            }
             if(lhs.sourceType == SourceType.ARRAY){
-                String arrayType = lhs.returnType.getUnderlyingArrayType().getInternalName();
-                boolean primitive = TypeUtil.isPrimitiveType(arrayType);
-                if (primitive) {
-                    insnList.add(new InsnNode(Opcodes.IASTORE));
-                } else {
-                    insnList.add(new InsnNode(Opcodes.AASTORE));
-                }
+                Type elementType = lhs.returnType.getUnderlyingArrayType();
+                insnList.add(convertForAssignment(rhs.returnType, elementType, context.expression()));
+                insnList.add(new InsnNode(elementType.getOpcode(Opcodes.IASTORE)));
             }
             return new Result(insnList, rhs.returnType, Optional.empty(), SourceType.UNKNOWN);
         }
@@ -98,6 +116,16 @@ public class ExpressionCompiler {
             PostfixOperatorContext postfixOperatorContext = postfixOperator.get(i);
             if (postfixOperatorContext.DOT() != null) {
                 MemberAccessContext memberAccessContext = postfixOperatorContext.memberAccess();
+                if (memberAccessContext.memberName() != null && returnType.isArrayType()) {
+                    //Arrays have no fields, only their length can be read like in Java
+                    if (!memberAccessContext.memberName().getText().equals("length") || (i == postfixOperator.size() - 1 && isAssignLhs)) {
+                        throw new IllegalArgumentException("Arrays only have a readable length, not: " + memberAccessContext.memberName().getText());
+                    }
+                    insnList.add(new InsnNode(Opcodes.ARRAYLENGTH));
+                    returnType = Type.INT;
+                    sourceType = SourceType.UNKNOWN;
+                    continue;
+                }
                 if (memberAccessContext.memberName() != null) {
                     if (returnType.isStaticType()) {
                         Type typeDesc = returnType.getTypeFromStaticType();
@@ -125,61 +153,62 @@ public class ExpressionCompiler {
                     MethodInvocationContext methodInvocationContext = memberAccessContext.methodInvocation();
                     String methodName = methodInvocationContext.memberName().getText();
                     List<Type> argTypes = new ArrayList<>();
-                    InsnList argEvaluationInstructions = new InsnList();
-                    if (methodInvocationContext.argList() != null) {
-                        for (ExpressionContext argExpression : methodInvocationContext.argList().expression()) {
-                            Result argExpressionResult = compileExpression(argExpression);
-                            argEvaluationInstructions.add(argExpressionResult.insnList());
-                            argTypes.add(argExpressionResult.returnType);
-                        }
+                    List<Result> args = new ArrayList<>();
+                    List<ExpressionContext> argExpressions = methodInvocationContext.argList() != null
+                            ? methodInvocationContext.argList().expression() : List.of();
+                    for (ExpressionContext argExpression : argExpressions) {
+                        Result argExpressionResult = compileExpression(argExpression);
+                        args.add(argExpressionResult);
+                        argTypes.add(argExpressionResult.returnType);
                     }
-                    String owner;
-                    int opcode;
-                    if (returnType.isStaticType()) {
-                        owner = returnType.getTypeFromStaticType().getInternalName();
-                        opcode = Opcodes.INVOKESTATIC;
-                    } else {
-                        owner = returnType.getInternalName();
-                        if(isTypeTrait(owner)){
-                            opcode = Opcodes.INVOKEINTERFACE;
-                        }
-                        else {
-                            opcode = Opcodes.INVOKEVIRTUAL;
-                        }
+                    Result invocationResult = compileMethodInvocation(returnType, methodName, args, argExpressions);
+                    if (invocationResult == null) {
+                        throw new IllegalArgumentException("No method " + methodName + argTypes + " on " + returnType + " at: " + context.getText());
                     }
-                    ClassNode owningClassNode = getClassNodeByName(owner);
-                    MethodNode invokedMethod = ClassNodeUtil.getMethodNodeByNameAndParameterTypes(
-                            owningClassNode,
-                            methodName,
-                            argTypes);
-                    if (invokedMethod != null) {
-                        insnList.add(argEvaluationInstructions);
-                        insnList.add(new MethodInsnNode(opcode, owner, invokedMethod.name, invokedMethod.desc));
-                        returnType = Descriptor.fromString(invokedMethod.desc).getReturnType();
-                        sourceType = SourceType.METHOD;
-                    }else {
-                        Result traitImplInvocationResult = getTraitImplMethodInvocation(methodName, argTypes, owner, argEvaluationInstructions);
-                        insnList.add(traitImplInvocationResult.insnList());
-                        returnType = traitImplInvocationResult.returnType;
-                        sourceType = SourceType.METHOD;
-                        returnFieldName = null;
+                    insnList.add(invocationResult.insnList());
+                    returnType = invocationResult.returnType;
+                    sourceType = SourceType.METHOD;
+                    returnFieldName = null;
+                }
+            }
+            if (postfixOperatorContext.arrayAccess() != null && getColumnarStruct(returnType) != null) {
+                String containerName = returnType.getInternalName();
+                String structName = getColumnarStruct(returnType);
+                Result indexExpressionResult = compileExpression(postfixOperatorContext.arrayAccess().expression());
+                MemberAccessContext nextMemberAccess = i + 1 < postfixOperator.size() ? postfixOperator.get(i + 1).memberAccess() : null;
+                if (nextMemberAccess != null && nextMemberAccess.memberName() != null) {
+                    //array[i].field uses the column of the field without creating the struct
+                    FieldNode fieldNode = ClassNodeUtil.getFieldNodeByName(getClassNodeByName(structName), nextMemberAccess.memberName().getText());
+                    insnList.add(new FieldInsnNode(Opcodes.GETFIELD, containerName, fieldNode.name, "[" + fieldNode.desc));
+                    insnList.add(indexExpressionResult.insnList());
+                    insnList.add(convertForAssignment(indexExpressionResult.returnType(), Type.INT, postfixOperatorContext.arrayAccess().expression()));
+                    i++;
+                    if (i < postfixOperator.size() - 1 || !isAssignLhs) {
+                        insnList.add(new InsnNode(Type.fromDescriptor(fieldNode.desc).getOpcode(Opcodes.IALOAD)));
                     }
+                    returnType = Type.fromDescriptor(fieldNode.desc);
+                    returnFieldName = fieldNode.name;
+                    sourceType = SourceType.COLUMN;
+                } else {
+                    insnList.add(indexExpressionResult.insnList());
+                    insnList.add(convertForAssignment(indexExpressionResult.returnType(), Type.INT, postfixOperatorContext.arrayAccess().expression()));
+                    if (i < postfixOperator.size() - 1 || !isAssignLhs) {
+                        insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, containerName, "get", "(I)L" + structName + ";"));
+                        returnType = Type.fromInternalName(structName);
+                    }
+                    sourceType = SourceType.COLUMNAR_ELEMENT;
                 }
+                continue;
             }
             if (postfixOperatorContext.arrayAccess() != null) {
                 ArrayAccessContext arrayAccessContext = postfixOperatorContext.arrayAccess();
                 Result indexExpressionResult = compileExpression(arrayAccessContext.expression());
                 insnList.add(indexExpressionResult.insnList());
+                insnList.add(convertForAssignment(indexExpressionResult.returnType(), Type.INT, arrayAccessContext.expression()));
                 Type arrayType = returnType.getUnderlyingArrayType();
-                boolean primitive = arrayType.isPrimitiveType();
                 if(i < postfixOperator.size() -1 || !isAssignLhs) {
-                    if (primitive) {
-                        insnList.add(new InsnNode(Opcodes.IALOAD));
-                        returnType = Type.INT;
-                    } else {
-                        insnList.add(new InsnNode(Opcodes.AALOAD));
-                        returnType = arrayType;
-                    }
+                    insnList.add(new InsnNode(arrayType.getOpcode(Opcodes.IALOAD)));
+                    returnType = arrayType;
                 }
                 sourceType = SourceType.ARRAY;
             }
@@ -187,7 +216,7 @@ public class ExpressionCompiler {
         if(isAssignLhs){
             int postFixOperatorSize = postfixOperator.size();
             if(postFixOperatorSize > 0){
-                if(postfixOperator.get(postFixOperatorSize - 1).arrayAccess() != null){
+                if(postfixOperator.get(postFixOperatorSize - 1).arrayAccess() != null && sourceType != SourceType.COLUMNAR_ELEMENT){
                     sourceType = SourceType.ARRAY;
                 }
                 if(postfixOperator.get(postFixOperatorSize - 1).memberAccess() != null) {
@@ -205,9 +234,9 @@ public class ExpressionCompiler {
         if(context.literal() != null){
             if(context.literal().NUMBER() != null){
                 InsnList insnList = new InsnList();
-                int value = Integer.parseInt(context.literal().NUMBER().getText());
-                insnList.add(new IntInsnNode(Opcodes.BIPUSH, value));
-                return new Result(insnList, Type.INT, Optional.empty(), SourceType.LITERAL);
+                ConstantEvaluator.Constant value = ConstantEvaluator.parseNumberLiteral(context.literal().NUMBER().getText());
+                insnList.add(value.toInsn());
+                return new Result(insnList, value.type(), Optional.empty(), SourceType.LITERAL);
             }
             if(context.literal().STRING() != null){
                 InsnList insnList = new InsnList();
@@ -223,8 +252,10 @@ public class ExpressionCompiler {
         }
         if(context.memberOrVariableName() != null){
             String memberName = context.memberOrVariableName().getText();
-            if(methodCompiler.structureCompiler.isClassNameImplClass(methodCompiler.className) && memberName.equals("this")) {
+            boolean isStaticMethod = (methodCompiler.methodNode.access & Opcodes.ACC_STATIC) != 0;
+            if(methodCompiler.structureCompiler.isClassNameImplClass(methodCompiler.className) && memberName.equals("this") && !isStaticMethod) {
                 //Special Case for the "this" keyword in impl as we need to capture this and use the "this_" variable instead
+                //(static impl bridges get the struct passed as a local named "this" instead)
                 InsnList insnList = new InsnList();
                 Type type = Type.fromDescriptor(TypeUtil.toDesc(methodCompiler.fullyQualifyType(methodCompiler.className.split("\\$")[1])));
                 insnList.add(new VarInsnNode(Opcodes.ALOAD, 0));
@@ -234,12 +265,11 @@ public class ExpressionCompiler {
                 InsnList insnList = new InsnList();
                 int localVarIndex = methodCompiler.getLocalVarIndexByName(memberName);
                 Type localVarType = methodCompiler.getLocalVarTypeByName(memberName);
-                if(!isJustLocalVarAssignment) {
-                    insnList.add(new VarInsnNode(
-                            switch (localVarType.getKind()) {
-                                case Type.Kind.INT, Type.Kind.BOOLEAN -> Opcodes.ILOAD;
-                                default -> Opcodes.ALOAD;
-                            }, localVarIndex));
+                ConstantEvaluator.Constant constant = methodCompiler.localConstants.get(localVarIndex);
+                if(!isJustLocalVarAssignment && constant != null) {
+                    insnList.add(constant.toInsn());
+                } else if(!isJustLocalVarAssignment) {
+                    insnList.add(new VarInsnNode(localVarType.getOpcode(Opcodes.ILOAD), localVarIndex));
                 }
                 return new Result(insnList, localVarType, Optional.ofNullable(memberName), SourceType.LOCAL_VARIABLE);
             }else if(isClassName(memberName)){
@@ -254,6 +284,10 @@ public class ExpressionCompiler {
             StructInitializerExpressionCompiler structInitializerExpressionCompiler = new StructInitializerExpressionCompiler(this);
             return structInitializerExpressionCompiler.compileStructInitializerExpression(context.structInitializerExpression());
         }
+        if(context.arrayAllocationExpression() != null){
+            StructInitializerExpressionCompiler structInitializerExpressionCompiler = new StructInitializerExpressionCompiler(this);
+            return structInitializerExpressionCompiler.compileArrayAllocationExpression(context.arrayAllocationExpression());
+        }
         if(context.castExpression() != null){
             CastExpressionCompiler castExpressionCompiler = new CastExpressionCompiler(this);
             return castExpressionCompiler.compileCastExpression(context.castExpression());
@@ -264,28 +298,75 @@ public class ExpressionCompiler {
         return null;
     }
 
-    private Result getTraitImplMethodInvocation(String methodName, List<Type> argTypes, String owner, InsnList argEvaluationInstructions) {
-        Set<String> implementedTraits = structureCompiler.implementedTraitsForStruct
-                .getOrDefault(owner, new HashSet<>());
+    /**
+     * Invokes a method on the receiver on top of the stack, or a static method if the receiver is a static type. Methods
+     * of the type itself are called directly, methods of traits implemented for it through the impl class.
+     *
+     * @return the arguments and the call, null if there is no such method
+     */
+    public Result compileMethodInvocation(Type receiverType, String methodName, List<Result> args, List<ExpressionContext> argExpressions) {
+        List<Type> argTypes = new ArrayList<>();
+        for (Result arg : args) {
+            argTypes.add(arg.returnType);
+        }
+        String owner;
+        int opcode;
+        if (receiverType.isStaticType()) {
+            owner = receiverType.getTypeFromStaticType().getInternalName();
+            opcode = Opcodes.INVOKESTATIC;
+        } else {
+            owner = receiverType.getInternalName();
+            if(isTypeTrait(owner)){
+                opcode = Opcodes.INVOKEINTERFACE;
+            }
+            else {
+                opcode = Opcodes.INVOKEVIRTUAL;
+            }
+        }
+        ClassNode owningClassNode = getClassNodeByName(owner);
+        MethodNode invokedMethod = ClassNodeUtil.getMethodNodeByNameAndParameterTypes(
+                owningClassNode,
+                methodName,
+                argTypes);
+        if (invokedMethod != null) {
+            InsnList insnList = new InsnList();
+            insnList.add(compileArguments(args, argExpressions, invokedMethod.desc));
+            insnList.add(new MethodInsnNode(opcode, owner, invokedMethod.name, invokedMethod.desc));
+            return new Result(insnList, Descriptor.fromString(invokedMethod.desc).getReturnType(), Optional.empty(), SourceType.METHOD);
+        }
+        return getTraitImplMethodInvocation(methodName, argTypes, owner, args, argExpressions);
+    }
+
+    private Result getTraitImplMethodInvocation(String methodName, List<Type> argTypes, String owner, List<Result> args, List<ExpressionContext> argExpressions) {
+        Set<String> implementedTraits = new LinkedHashSet<>(structureCompiler.implementedTraitsForStruct
+                .getOrDefault(owner, Set.of()));
         if(isTypeTrait(owner)){
             implementedTraits.add(owner);
         }
         InsnList insnList = new InsnList();
         for (String trait : implementedTraits) {
-            ClassNode traitClass = this.structureCompiler.generatedClassNodes.get(trait);
+            ClassNode traitClass = getClassNodeByName(trait);
             MethodNode invokedTraitMethod = ClassNodeUtil.getMethodNodeByNameAndParameterTypes(
                     traitClass,
                     methodName,
                     argTypes);
             if(invokedTraitMethod != null){
                 String implClassName =  traitClass.name + "$" + owner.replace("/", "_");
+                if(structureCompiler.options.staticImplBridges && !isTypeTrait(owner)){
+                    //The struct is already on the stack below the arguments, which matches the bridge signature
+                    insnList.add(compileArguments(args, argExpressions, invokedTraitMethod.desc));
+                    insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC, implClassName,
+                            ImplBridgeCompiler.getBridgeName(invokedTraitMethod.name),
+                            ImplBridgeCompiler.getBridgeDesc(TypeUtil.toDesc(owner), invokedTraitMethod.desc)));
+                    return new Result(insnList, new Descriptor(invokedTraitMethod.desc).getReturnType(), Optional.empty(), SourceType.STATIC_STRUCT_MEMBER);
+                }
                 String implClassConstructorDesc = "(" + TypeUtil.toDesc(owner) + ")V";
                 insnList.add(new TypeInsnNode(Opcodes.NEW, implClassName));
                 insnList.add(new InsnNode(Opcodes.DUP));
                 insnList.add(new InsnNode(Opcodes.DUP2_X1));
                 insnList.add(new InsnNode(Opcodes.POP2));
                 insnList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, implClassName, "<init>", implClassConstructorDesc));
-                insnList.add(argEvaluationInstructions);
+                insnList.add(compileArguments(args, argExpressions, invokedTraitMethod.desc));
                 insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, implClassName, invokedTraitMethod.name, invokedTraitMethod.desc));
                 return new Result(insnList, new Descriptor(invokedTraitMethod.desc).getReturnType(), Optional.empty(), SourceType.STATIC_STRUCT_MEMBER);
             }
@@ -293,18 +374,67 @@ public class ExpressionCompiler {
         return null;
     }
 
+    /**
+     * @return the instructions of the arguments, each converted to the type of its parameter in the method descriptor
+     */
+    InsnList compileArguments(List<Result> args, List<ExpressionContext> argExpressions, String methodDesc) {
+        InsnList insnList = new InsnList();
+        List<Type> parameterTypes = Descriptor.fromString(methodDesc).getParameters();
+        for (int i = 0; i < args.size(); i++) {
+            insnList.add(args.get(i).insnList());
+            insnList.add(convertForAssignment(args.get(i).returnType, parameterTypes.get(i), argExpressions.get(i)));
+        }
+        return insnList;
+    }
+
+    /**
+     * @return the conversion of a value assigned to a variable, field, array element or parameter of the given type.
+     * Numeric values are widened implicitly, narrowing needs a cast unless the value is an int constant that fits
+     * into the byte, short or char it is assigned to.
+     */
+    public InsnList convertForAssignment(Type valueType, Type targetType, ExpressionContext value) {
+        if (!NumericUtil.isNumeric(valueType) || !NumericUtil.isNumeric(targetType) || valueType.equals(targetType)) {
+            return new InsnList();
+        }
+        if (NumericUtil.isWidening(valueType, targetType) || isConstantInRange(value, targetType)) {
+            return NumericUtil.convert(valueType, targetType);
+        }
+        throw new IllegalArgumentException("Cannot assign " + valueType + " to " + targetType + " without a cast: " + value.getText());
+    }
+
+    private boolean isConstantInRange(ExpressionContext value, Type targetType) {
+        ConstantEvaluator.Constant constant = methodCompiler.getConstantEvaluator().evaluate(value);
+        if (constant == null || !(constant.value() instanceof Integer intValue)) return false;
+        return switch (targetType.getKind()) {
+            case BYTE -> intValue == (byte) (int) intValue;
+            case SHORT -> intValue == (short) (int) intValue;
+            case CHAR -> intValue == (char) (int) intValue;
+            default -> false;
+        };
+    }
+
     private ClassNode getClassNodeByName(String typeName) {
-        return structureCompiler.generatedClassNodes.getOrDefault(typeName, ClassNodeUtil.loadClassNodeFromJDKCLasses(typeName));
+        structureCompiler.recordReference(methodCompiler.fileName, typeName);
+        return structureCompiler.getClassNode(typeName);
     }
 
     private boolean isClassName(String type){
         String importMappedType = methodCompiler.fullyQualifyType(type);
-        return structureCompiler.generatedClassNodes.containsKey(importMappedType) || ClassNodeUtil.loadClassNodeFromJDKCLasses(importMappedType) != null;
+        return getClassNodeByName(importMappedType) != null;
+    }
+
+    /**
+     * @return the struct if the type is the container of a columnar struct array, null otherwise
+     */
+    public String getColumnarStruct(Type type) {
+        if (type.getKind() != Type.Kind.OBJECT || type.isArrayType() || type.isStaticType()) return null;
+        String structName = structureCompiler.getColumnarStruct(type.getInternalName());
+        if (structName != null) structureCompiler.recordReference(methodCompiler.fileName, type.getInternalName());
+        return structName;
     }
 
     private boolean isTypeTrait(String typeName){
-        ClassNode classNode = structureCompiler.generatedClassNodes.get(typeName);
-        if(classNode == null) classNode = ClassNodeUtil.loadClassNodeFromJDKCLasses(typeName);
+        ClassNode classNode = getClassNodeByName(typeName);
         return Modifier.isInterface(classNode.access);
     }
 
@@ -315,6 +445,10 @@ public class ExpressionCompiler {
         METHOD,
         LITERAL,
         ARRAY,
+        //Field of an element of a columnar struct array, the column and index are on the stack
+        COLUMN,
+        //Element of a columnar struct array as a whole, the container and index are on the stack
+        COLUMNAR_ELEMENT,
         UNKNOWN
     }
 
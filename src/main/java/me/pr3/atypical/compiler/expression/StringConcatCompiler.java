@@ -0,0 +1,130 @@
+package me.pr3.atypical.compiler.expression;
+
+import me.pr3.atypical.compiler.typing.Type;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Compiles + on strings to a single invokedynamic of StringConcatFactory.makeConcatWithConstants like javac does.
+ * As + is right associative the operand on the right is compiled first, if it is a concatenation itself its call
+ * site is merged into the new one, so a whole chain of + ends up as one call. Constant operands become part of the
+ * recipe instead of arguments.
+ *
+ * @author tim
+ */
+public class StringConcatCompiler {
+
+    private static final Handle BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC, "java/lang/invoke/StringConcatFactory",
+            "makeConcatWithConstants", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+            + "Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;", false);
+    private static final char ARGUMENT_TAG = '\u0001';
+    private static final char CONSTANT_TAG = '\u0002';
+    //StringConcatFactory accepts at most 200 argument slots per call site
+    private static final int MAX_ARGUMENT_SLOTS = 200;
+
+    public static boolean isString(Type type) {
+        return "Ljava/lang/String;".equals(type.toString());
+    }
+
+    public static ExpressionCompiler.Result compileConcatenation(ExpressionCompiler.Result lhs, ExpressionCompiler.Result rhs) {
+        InsnList insnList = new InsnList();
+        StringBuilder recipe = new StringBuilder();
+        List<org.objectweb.asm.Type> argumentTypes = new ArrayList<>();
+        append(lhs, insnList, recipe, argumentTypes);
+        append(rhs, insnList, recipe, argumentTypes);
+
+        Type stringType = Type.fromDescriptor("Ljava/lang/String;");
+        if (argumentTypes.isEmpty()) {
+            insnList.add(new LdcInsnNode(recipe.toString()));
+            return new ExpressionCompiler.Result(insnList, stringType, Optional.empty(), ExpressionCompiler.SourceType.LITERAL);
+        }
+        String desc = org.objectweb.asm.Type.getMethodDescriptor(org.objectweb.asm.Type.getType(String.class),
+                argumentTypes.toArray(org.objectweb.asm.Type[]::new));
+        insnList.add(new InvokeDynamicInsnNode("makeConcatWithConstants", desc, BOOTSTRAP, recipe.toString()));
+        return new ExpressionCompiler.Result(insnList, stringType, Optional.empty(), ExpressionCompiler.SourceType.UNKNOWN);
+    }
+
+    private static void append(ExpressionCompiler.Result operand, InsnList insnList, StringBuilder recipe, List<org.objectweb.asm.Type> argumentTypes) {
+        String constant = getConstantText(operand);
+        if (constant != null && constant.indexOf(ARGUMENT_TAG) < 0 && constant.indexOf(CONSTANT_TAG) < 0) {
+            recipe.append(constant);
+            return;
+        }
+
+        AbstractInsnNode last = operand.insnList().getLast();
+        if (last instanceof InvokeDynamicInsnNode concat && BOOTSTRAP.equals(concat.bsm) && concat.bsmArgs.length == 1) {
+            org.objectweb.asm.Type[] nestedTypes = org.objectweb.asm.Type.getArgumentTypes(concat.desc);
+            if (getSlots(argumentTypes) + getSlots(List.of(nestedTypes)) <= MAX_ARGUMENT_SLOTS) {
+                operand.insnList().remove(concat);
+                insnList.add(operand.insnList());
+                recipe.append((String) concat.bsmArgs[0]);
+                argumentTypes.addAll(List.of(nestedTypes));
+                return;
+            }
+        }
+
+        Type type = operand.returnType();
+        if (type.getKind() == Type.Kind.VOID) {
+            throw new IllegalStateException("Cannot concatenate a void value");
+        }
+        //null and generic parameters are passed as Object
+        String desc = type.isUnknownType() || type.isStaticType() ? "Ljava/lang/Object;" : type.toString();
+        org.objectweb.asm.Type argumentType = org.objectweb.asm.Type.getType(desc);
+        if (getSlots(argumentTypes) + argumentType.getSize() > MAX_ARGUMENT_SLOTS) {
+            throw new IllegalStateException("Too many operands in string concatenation");
+        }
+        insnList.add(operand.insnList());
+        recipe.append(ARGUMENT_TAG);
+        argumentTypes.add(argumentType);
+    }
+
+    private static int getSlots(List<org.objectweb.asm.Type> types) {
+        return types.stream().mapToInt(org.objectweb.asm.Type::getSize).sum();
+    }
+
+    /**
+     * @return the text of an operand that is just a constant, formatted like String.valueOf does at runtime, or null
+     */
+    private static String getConstantText(ExpressionCompiler.Result operand) {
+        if (operand.insnList().size() != 1) return null;
+        AbstractInsnNode insn = operand.insnList().getFirst();
+        Object value;
+        if (insn instanceof LdcInsnNode ldc) {
+            value = ldc.cst;
+        } else if (insn instanceof IntInsnNode push && (push.getOpcode() == Opcodes.BIPUSH || push.getOpcode() == Opcodes.SIPUSH)) {
+            value = push.operand;
+        } else if (insn instanceof InsnNode) {
+            int opcode = insn.getOpcode();
+            if (opcode == Opcodes.ACONST_NULL) return "null";
+            if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) value = opcode - Opcodes.ICONST_0;
+            else if (opcode >= Opcodes.LCONST_0 && opcode <= Opcodes.LCONST_1) value = (long) (opcode - Opcodes.LCONST_0);
+            else if (opcode >= Opcodes.FCONST_0 && opcode <= Opcodes.FCONST_2) value = (float) (opcode - Opcodes.FCONST_0);
+            else if (opcode >= Opcodes.DCONST_0 && opcode <= Opcodes.DCONST_1) value = (double) (opcode - Opcodes.DCONST_0);
+            else return null;
+        } else {
+            return null;
+        }
+
+        if (value instanceof String string) return isString(operand.returnType()) ? string : null;
+        if (!(value instanceof Number number)) return null;
+        return switch (operand.returnType().getKind()) {
+            case INT, BYTE, SHORT -> String.valueOf(number.intValue());
+            case CHAR -> String.valueOf((char) number.intValue());
+            case BOOLEAN -> String.valueOf(number.intValue() != 0);
+            case LONG -> String.valueOf(number.longValue());
+            case FLOAT -> String.valueOf(number.floatValue());
+            case DOUBLE -> String.valueOf(number.doubleValue());
+            default -> null;
+        };
+    }
+}
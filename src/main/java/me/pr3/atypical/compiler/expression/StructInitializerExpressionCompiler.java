@@ -2,6 +2,7 @@ package me.pr3.atypical.compiler.expression;
 
 import me.pr3.atypical.compiler.typing.Type;
 import me.pr3.atypical.compiler.util.ClassNodeUtil;
+import me.pr3.atypical.compiler.util.OpcodeUtil;
 import me.pr3.atypical.compiler.util.TypeUtil;
 import me.pr3.atypical.generated.AtypicalParser;
 import org.objectweb.asm.Opcodes;
@@ -27,58 +28,146 @@ public class StructInitializerExpressionCompiler {
         InsnList insnList = new InsnList();
         String typeName = structInitializerExpression.typeName().getText();
         Type type = Type.fromDescriptor(TypeUtil.toDesc(typeName, expressionCompiler.structureCompiler.imports.get(expressionCompiler.methodCompiler.fileName)));
+        String columnarStruct = expressionCompiler.getColumnarStruct(type);
+        if (columnarStruct != null) {
+            return compileColumnarArrayInitializer(structInitializerExpression, type, columnarStruct);
+        }
         if(!type.isArrayType()) {
             String fullyQualifiedTypeName = type.getInternalName();
             insnList.add(new TypeInsnNode(Opcodes.NEW, fullyQualifiedTypeName));
             insnList.add(new InsnNode(Opcodes.DUP));
             List<Type> argTypes = new ArrayList<>();
-            if (structInitializerExpression.argList() != null) {
-                AtypicalParser.ArgListContext argList = structInitializerExpression.argList();
-                for (AtypicalParser.ExpressionContext expression : argList.expression()) {
-                    Result expressionResult = expressionCompiler.compileExpression(expression);
-                    insnList.add(expressionResult.insnList());
-                    argTypes.add(expressionResult.returnType());
-                }
+            List<Result> args = new ArrayList<>();
+            List<AtypicalParser.ExpressionContext> argExpressions = structInitializerExpression.argList() != null
+                    ? structInitializerExpression.argList().expression() : List.of();
+            for (AtypicalParser.ExpressionContext expression : argExpressions) {
+                Result expressionResult = expressionCompiler.compileExpression(expression);
+                args.add(expressionResult);
+                argTypes.add(expressionResult.returnType());
             }
             argTypes.add(Type.fromInternalName("java/lang/Void"));
-            insnList.add(new InsnNode(Opcodes.ACONST_NULL));
-            ClassNode owner = expressionCompiler.structureCompiler.generatedClassNodes.get(fullyQualifiedTypeName);
+            expressionCompiler.structureCompiler.recordReference(expressionCompiler.methodCompiler.fileName, fullyQualifiedTypeName);
+            ClassNode owner = expressionCompiler.structureCompiler.getClassNode(fullyQualifiedTypeName);
             MethodNode methodNode = ClassNodeUtil.getMethodNodeByNameAndParameterTypes(owner, "<init>", argTypes);
+            insnList.add(expressionCompiler.compileArguments(args, argExpressions, methodNode.desc));
+            insnList.add(new InsnNode(Opcodes.ACONST_NULL));
             insnList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, fullyQualifiedTypeName, "<init>", methodNode.desc));
             return new Result(insnList, type, Optional.empty(), SourceType.UNKNOWN);
         }else {
             Type arrayType = type.getUnderlyingArrayType();
-            boolean primitive = arrayType.isPrimitiveType();
-            int length = structInitializerExpression.argList() != null ? structInitializerExpression.argList().expression().size() : 0;
-            if(structInitializerExpression.argList() != null){
-                for (AtypicalParser.ExpressionContext expressionContext : structInitializerExpression.argList().expression()) {
-                    insnList.add(expressionCompiler.compileExpression(expressionContext).insnList());
-                }
-            }
-            insnList.add(new IntInsnNode(Opcodes.BIPUSH, length));
-            if(!primitive){
+            List<AtypicalParser.ExpressionContext> elements = structInitializerExpression.argList() != null
+                    ? structInitializerExpression.argList().expression() : List.of();
+            insnList.add(OpcodeUtil.pushInt(elements.size()));
+            if(!arrayType.isPrimitiveType()){
                 String argType = arrayType.isArrayType() ? arrayType.toString() : arrayType.getInternalName();
                 insnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, argType));
             }else {
                 insnList.add(new IntInsnNode(Opcodes.NEWARRAY, getArrayTypeOpcode(arrayType)));
             }
-            if(structInitializerExpression.argList() != null){
-                for (int i = structInitializerExpression.argList().expression().size() - 1; i >= 0; i--) {
-                    insnList.add(new InsnNode(Opcodes.DUP_X1));
-                    insnList.add(new InsnNode(Opcodes.SWAP));
-                    insnList.add(new IntInsnNode(Opcodes.BIPUSH, i));
-                    insnList.add(new InsnNode(Opcodes.SWAP));
-                    if (primitive) {
-                        insnList.add(new InsnNode(Opcodes.IASTORE));
-                    } else {
-                        insnList.add(new InsnNode(Opcodes.AASTORE));
-                    }
-                }
+            for (int i = 0; i < elements.size(); i++) {
+                Result element = expressionCompiler.compileExpression(elements.get(i));
+                insnList.add(new InsnNode(Opcodes.DUP));
+                insnList.add(OpcodeUtil.pushInt(i));
+                insnList.add(element.insnList());
+                insnList.add(expressionCompiler.convertForAssignment(element.returnType(), arrayType, elements.get(i)));
+                insnList.add(new InsnNode(arrayType.getOpcode(Opcodes.IASTORE)));
             }
             return new Result(insnList, type, Optional.empty(), SourceType.UNKNOWN);
         }
     }
 
+    /**
+     * <code>Type[](n)</code> allocates an array of n elements that are all zero, false or null. For a columnar struct
+     * this is the container with n elements in every column.
+     */
+    public Result compileArrayAllocationExpression(AtypicalParser.ArrayAllocationExpressionContext arrayAllocationExpression) {
+        InsnList insnList = new InsnList();
+        String typeName = arrayAllocationExpression.arrayTypeName().getText();
+        Type type = Type.fromDescriptor(TypeUtil.toDesc(typeName, expressionCompiler.structureCompiler.imports.get(expressionCompiler.methodCompiler.fileName)));
+        AtypicalParser.ExpressionContext lengthExpression = arrayAllocationExpression.expression();
+        Result length = expressionCompiler.compileExpression(lengthExpression);
+        String columnarStruct = expressionCompiler.getColumnarStruct(type);
+        if (columnarStruct != null) {
+            insnList.add(new TypeInsnNode(Opcodes.NEW, type.getInternalName()));
+            insnList.add(new InsnNode(Opcodes.DUP));
+        }
+        insnList.add(length.insnList());
+        insnList.add(expressionCompiler.convertForAssignment(length.returnType(), Type.INT, lengthExpression));
+        if (columnarStruct != null) {
+            insnList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, type.getInternalName(), "<init>", "(I)V"));
+            return new Result(insnList, type, Optional.empty(), SourceType.UNKNOWN);
+        }
+        Type arrayType = type.getUnderlyingArrayType();
+        if (!arrayType.isPrimitiveType()) {
+            String argType = arrayType.isArrayType() ? arrayType.toString() : arrayType.getInternalName();
+            insnList.add(new TypeInsnNode(Opcodes.ANEWARRAY, argType));
+        } else {
+            insnList.add(new IntInsnNode(Opcodes.NEWARRAY, getArrayTypeOpcode(arrayType)));
+        }
+        return new Result(insnList, type, Optional.empty(), SourceType.UNKNOWN);
+    }
+
+    /**
+     * <code>Struct[]{...}</code> of a columnar struct creates the container and stores every element into the columns,
+     * elements written as <code>Struct{...}</code> are stored field by field without creating the struct.
+     */
+    private Result compileColumnarArrayInitializer(AtypicalParser.StructInitializerExpressionContext structInitializerExpression,
+                                                   Type containerType, String structName) {
+        InsnList insnList = new InsnList();
+        String containerName = containerType.getInternalName();
+        List<AtypicalParser.ExpressionContext> elements = structInitializerExpression.argList() != null
+                ? structInitializerExpression.argList().expression() : List.of();
+        ClassNode struct = expressionCompiler.structureCompiler.getClassNode(structName);
+        insnList.add(new TypeInsnNode(Opcodes.NEW, containerName));
+        insnList.add(new InsnNode(Opcodes.DUP));
+        insnList.add(OpcodeUtil.pushInt(elements.size()));
+        insnList.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, containerName, "<init>", "(I)V"));
+        for (int i = 0; i < elements.size(); i++) {
+            AtypicalParser.StructInitializerExpressionContext elementInitializer = getStructInitializer(elements.get(i), structName);
+            if (elementInitializer == null) {
+                insnList.add(new InsnNode(Opcodes.DUP));
+                insnList.add(OpcodeUtil.pushInt(i));
+                insnList.add(expressionCompiler.compileExpression(elements.get(i)).insnList());
+                insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, containerName, "set", "(IL" + structName + ";)V"));
+                continue;
+            }
+            List<AtypicalParser.ExpressionContext> fieldValues = elementInitializer.argList() != null
+                    ? elementInitializer.argList().expression() : List.of();
+            List<Type> argTypes = new ArrayList<>();
+            for (int field = 0; field < fieldValues.size(); field++) {
+                FieldNode fieldNode = struct.fields.get(field);
+                Result fieldValue = expressionCompiler.compileExpression(fieldValues.get(field));
+                argTypes.add(fieldValue.returnType());
+                insnList.add(new InsnNode(Opcodes.DUP));
+                insnList.add(new FieldInsnNode(Opcodes.GETFIELD, containerName, fieldNode.name, "[" + fieldNode.desc));
+                insnList.add(OpcodeUtil.pushInt(i));
+                insnList.add(fieldValue.insnList());
+                Type fieldType = Type.fromDescriptor(fieldNode.desc);
+                insnList.add(expressionCompiler.convertForAssignment(fieldValue.returnType(), fieldType, fieldValues.get(field)));
+                insnList.add(new InsnNode(fieldType.getOpcode(Opcodes.IASTORE)));
+            }
+            argTypes.add(Type.fromInternalName("java/lang/Void"));
+            if (ClassNodeUtil.getMethodNodeByNameAndParameterTypes(struct, "<init>", argTypes) == null) {
+                throw new IllegalArgumentException("Invalid initializer for " + structName + ": " + elementInitializer.getText());
+            }
+        }
+        return new Result(insnList, containerType, Optional.empty(), SourceType.UNKNOWN);
+    }
+
+    /**
+     * @return the initializer if the expression is nothing but <code>Struct{...}</code> with a value for every field
+     */
+    private AtypicalParser.StructInitializerExpressionContext getStructInitializer(AtypicalParser.ExpressionContext expression, String structName) {
+        if (expression.expression() != null || !expression.postfixExpression().postfixOperator().isEmpty()) return null;
+        AtypicalParser.StructInitializerExpressionContext initializer = expression.postfixExpression().primary().structInitializerExpression();
+        if (initializer == null) return null;
+        String desc = TypeUtil.toDesc(initializer.typeName().getText(), expressionCompiler.structureCompiler.imports.get(expressionCompiler.methodCompiler.fileName));
+        if (!desc.equals("L" + structName + ";")) return null;
+        int fieldCount = expressionCompiler.structureCompiler.getClassNode(structName).fields.size();
+        int argCount = initializer.argList() != null ? initializer.argList().expression().size() : 0;
+        return argCount == fieldCount ? initializer : null;
+    }
+
     public int getArrayTypeOpcode(Type arrayType){
         switch (arrayType.getKind()) {
             case Type.Kind.INT:
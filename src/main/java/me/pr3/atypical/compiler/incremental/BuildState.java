@@ -0,0 +1,90 @@
+package me.pr3.atypical.compiler.incremental;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * What the previous build knew about every input file: the hash of its source, the types it declared and the
+ * types its code depends on. Stored as a tab separated file in the cache directory, one line per input file.
+ *
+ * @author tim
+ */
+public class BuildState {
+
+    public static final String FILE_NAME = "build-state.tsv";
+
+    //Builds with different options cannot reuse each other's outputs
+    public String optionsFingerprint = "";
+    public Map<String, FileState> files = new LinkedHashMap<>();
+
+    public record FileState(String hash, FileDeclarations declarations, Set<String> referencedTypes) {
+
+    }
+
+    /**
+     * @return the state stored in the cache directory, or an empty state if there is none
+     */
+    public static BuildState load(Path cacheDir) throws IOException {
+        BuildState state = new BuildState();
+        Path path = cacheDir.resolve(FILE_NAME);
+        if (!Files.isRegularFile(path)) return state;
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) return state;
+        state.optionsFingerprint = lines.get(0);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] columns = line.split("\t", -1);
+            if (columns.length != 5) {
+                throw new IOException("Malformed build state entry: " + line);
+            }
+            Map<String, Set<String>> implementedTraits = new TreeMap<>();
+            for (String impl : split(columns[3])) {
+                String[] pair = impl.split(">");
+                implementedTraits.computeIfAbsent(pair[0], s -> new TreeSet<>()).add(pair[1]);
+            }
+            FileDeclarations declarations = new FileDeclarations(split(columns[2]), implementedTraits);
+            state.files.put(columns[0], new FileState(columns[1], declarations, split(columns[4])));
+        }
+        return state;
+    }
+
+    public void save(Path cacheDir) throws IOException {
+        StringBuilder output = new StringBuilder(optionsFingerprint).append('\n');
+        for (Map.Entry<String, FileState> entry : files.entrySet()) {
+            FileState file = entry.getValue();
+            List<String> impls = new ArrayList<>();
+            file.declarations().implementedTraits().forEach((struct, traits) -> traits.forEach(trait -> impls.add(struct + ">" + trait)));
+            output.append(entry.getKey()).append('\t')
+                    .append(file.hash()).append('\t')
+                    .append(String.join(",", file.declarations().declaredTypes())).append('\t')
+                    .append(String.join(",", impls)).append('\t')
+                    .append(String.join(",", file.referencedTypes())).append('\n');
+        }
+        Files.createDirectories(cacheDir);
+        //Write to a temporary file first so an interrupted build never leaves a truncated state behind
+        Path temp = cacheDir.resolve(FILE_NAME + ".tmp");
+        Files.writeString(temp, output, StandardCharsets.UTF_8);
+        Files.move(temp, cacheDir.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static String hash(CharSequence source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(StandardCharsets.UTF_8.encode(source instanceof CharBuffer buffer ? buffer.duplicate() : CharBuffer.wrap(source)));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Set<String> split(String column) {
+        if (column.isEmpty()) return new TreeSet<>();
+        return new TreeSet<>(Arrays.asList(column.split(",")));
+    }
+}
@@ -0,0 +1,159 @@
+package me.pr3.atypical.compiler.incremental;
+
+import me.pr3.atypical.compiler.CompilerOptions;
+import me.pr3.atypical.compiler.StructureCompiler;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Content addressed store of the classes compiled from a single file. Entries are looked up by a hash of the
+ * compiler version, the options and the file itself. As the code of a file also depends on the declarations of
+ * the types it uses, every entry lists the signature hash of each type the file referenced while it was compiled,
+ * an entry can only be used if all of these still match (see {@link StructureCompiler#compile()}).
+ * <p>
+ * Entries are written to a temporary file and moved into place, so several compilers can share a cache directory.
+ *
+ * @author tim
+ */
+public class BytecodeCache {
+
+    //Bump whenever the generated code changes for the same input, so old entries are not used anymore
+    public static final int COMPILER_VERSION = 7;
+
+    private static final int MAGIC = 0xA7C1CAC7;
+    private static final String ABSENT = "-";
+
+    private final Path directory;
+
+    public BytecodeCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param signatures the signature hash of every type the file referenced, by internal name
+     * @param classes    the classes compiled from the file, by internal name
+     */
+    public record Entry(Map<String, String> signatures, Map<String, byte[]> classes) {
+
+    }
+
+    public static String key(CompilerOptions options, String fileName, CharSequence source) {
+        MessageDigest digest = newDigest();
+        String implementationVersion = StructureCompiler.class.getPackage().getImplementationVersion();
+        update(digest, COMPILER_VERSION + ":" + implementationVersion);
+        update(digest, options.fingerprint());
+        update(digest, fileName);
+        update(digest, StandardCharsets.UTF_8.encode(source instanceof CharBuffer buffer ? buffer.duplicate() : CharBuffer.wrap(source)));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Hash of everything other files can observe of a type: its kind, supertypes, fields and methods in declaration
+     * order (which decides overload resolution) and the traits implemented for it. Types that do not exist get a
+     * fixed marker, as declaring them later changes how names resolve as well.
+     */
+    public static String signature(ClassNode classNode, Set<String> implementedTraits) {
+        if (classNode == null) return ABSENT;
+        MessageDigest digest = newDigest();
+        update(digest, classNode.access + " " + classNode.name + " " + classNode.superName);
+        if (classNode.interfaces != null) update(digest, String.join(",", classNode.interfaces));
+        if (classNode.fields != null) {
+            for (FieldNode field : classNode.fields) update(digest, field.access + " " + field.name + " " + field.desc);
+        }
+        if (classNode.methods != null) {
+            for (MethodNode method : classNode.methods) update(digest, method.access + " " + method.name + method.desc);
+        }
+        update(digest, String.join(",", new TreeSet<>(implementedTraits)));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return the entry stored for the key, null if there is none or it cannot be read
+     */
+    public Entry load(String key) {
+        Path path = getPath(key);
+        if (!Files.isRegularFile(path)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) return null;
+            int signatureCount = in.readInt();
+            Map<String, String> signatures = new LinkedHashMap<>();
+            for (int i = 0; i < signatureCount; i++) {
+                signatures.put(in.readUTF(), in.readUTF());
+            }
+            int classCount = in.readInt();
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (int i = 0; i < classCount; i++) {
+                String className = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(className, bytes);
+            }
+            return new Entry(signatures, classes);
+        } catch (IOException e) {
+            //A truncated or foreign file is treated like a miss, the entry gets replaced after compiling
+            return null;
+        }
+    }
+
+    public void store(String key, Entry entry) {
+        Path path = getPath(key);
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = Files.createTempFile(path.getParent(), key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(entry.signatures().size());
+                for (Map.Entry<String, String> signature : entry.signatures().entrySet()) {
+                    out.writeUTF(signature.getKey());
+                    out.writeUTF(signature.getValue());
+                }
+                out.writeInt(entry.classes().size());
+                for (Map.Entry<String, byte[]> classFile : entry.classes().entrySet()) {
+                    out.writeUTF(classFile.getKey());
+                    out.writeInt(classFile.getValue().length);
+                    out.write(classFile.getValue());
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write bytecode cache entry " + path, e);
+        }
+    }
+
+    private Path getPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".bin");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        update(digest, ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void update(MessageDigest digest, ByteBuffer bytes) {
+        int length = bytes.remaining();
+        digest.update((byte) (length >>> 24));
+        digest.update((byte) (length >>> 16));
+        digest.update((byte) (length >>> 8));
+        digest.update((byte) length);
+        digest.update(bytes);
+    }
+}
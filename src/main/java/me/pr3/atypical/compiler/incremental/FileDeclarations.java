@@ -0,0 +1,58 @@
+package me.pr3.atypical.compiler.incremental;
+
+import me.pr3.atypical.compiler.ColumnarContainerCompiler;
+
+import java.util.*;
+
+import static me.pr3.atypical.generated.AtypicalParser.*;
+
+/**
+ * The types a single file declares and the impls it contributes, derived from the parse tree alone with the same
+ * naming rules the {@link me.pr3.atypical.compiler.StructureCompiler} uses for the generated classes.
+ *
+ * @author tim
+ */
+public record FileDeclarations(Set<String> declaredTypes, Map<String, Set<String>> implementedTraits) {
+
+    public static FileDeclarations of(String fileName, FileContext fileContext) {
+        Map<String, String> imports = new HashMap<>();
+        for (ImportedClassContext importedClass : fileContext.imports().importedClass()) {
+            imports.put(importedClass.alias.getText(), importedClass.class_.getText().replace(".", "/"));
+        }
+        Set<String> declaredTypes = new TreeSet<>();
+        Map<String, Set<String>> implementedTraits = new TreeMap<>();
+        for (FileMemberContext fileMember : fileContext.fileMember()) {
+            if (fileMember.moduleDeclaration() != null) declaredTypes.add(fileMember.moduleDeclaration().typeName().getText());
+            if (fileMember.traitDeclaration() != null) declaredTypes.add(fileMember.traitDeclaration().typeName().getText());
+            if (fileMember.structDeclaration() != null) {
+                String structName = fileMember.structDeclaration().typeName().getText();
+                declaredTypes.add(structName);
+                if (fileMember.structDeclaration().COLUMNAR() != null) {
+                    declaredTypes.add(ColumnarContainerCompiler.getContainerName(structName));
+                }
+            }
+            if (fileMember.implDeclaration() != null) {
+                ImplDeclarationContext impl = fileMember.implDeclaration();
+                String traitName = imports.getOrDefault(impl.itf.getText(), impl.itf.getText());
+                String structName = imports.getOrDefault(impl.struct.getText(), impl.struct.getText());
+                declaredTypes.add(traitName + "$" + structName.replace("/", "_"));
+                implementedTraits.computeIfAbsent(structName, s -> new TreeSet<>()).add(traitName);
+            }
+            if (fileMember.methodImplementation() != null) declaredTypes.add(fileName.replace(".atp", ""));
+        }
+        return new FileDeclarations(declaredTypes, implementedTraits);
+    }
+
+    /**
+     * @return the declared types and every struct and trait the impls of the file refer to, the code of other files
+     * that uses one of these has to be compiled again when the file changes
+     */
+    public Set<String> getAffectedTypes() {
+        Set<String> affectedTypes = new HashSet<>(declaredTypes);
+        for (Map.Entry<String, Set<String>> entry : implementedTraits.entrySet()) {
+            affectedTypes.add(entry.getKey());
+            affectedTypes.addAll(entry.getValue());
+        }
+        return affectedTypes;
+    }
+}
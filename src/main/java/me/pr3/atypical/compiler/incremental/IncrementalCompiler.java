@@ -0,0 +1,149 @@
+package me.pr3.atypical.compiler.incremental;
+
+import me.pr3.atypical.compiler.ColumnarContainerCompiler;
+import me.pr3.atypical.compiler.CompilerOptions;
+import me.pr3.atypical.compiler.FileParser;
+import me.pr3.atypical.compiler.StructureCompiler;
+import me.pr3.atypical.compiler.incremental.BuildState.FileState;
+import me.pr3.atypical.compiler.util.ClassRepository;
+import me.pr3.atypical.compiler.util.ClassRepository.ClassFileSource;
+
+import java.util.*;
+
+/**
+ * Compiles only the files that changed since the previous build and the files that depend on a type declared by
+ * one of them. The classes of all other files are taken from the output of the previous build, which is only read
+ * for their signatures (see {@link ClassRepository}).
+ * <p>
+ * A file depends on a type if it imports it, implements a trait for it or if its code resolved a field, method or
+ * class through it. Whenever a file changes, every file depending on a type the file declared before or declares
+ * now, or on a struct or trait used by one of its impls, is compiled again as well.
+ *
+ * @author tim
+ */
+public class IncrementalCompiler {
+
+    private final CompilerOptions options;
+
+    //Passed on to the compiler, see StructureCompiler.bytecodeCache
+    public BytecodeCache bytecodeCache = null;
+
+    public IncrementalCompiler(CompilerOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * @param sources        all input files of the build, changed or not
+     * @param previous       the state after the previous build, empty for a full build
+     * @param previousOutput the classes written by the previous build
+     */
+    public Result compile(Map<String, ? extends CharSequence> sources, BuildState previous, ClassFileSource previousOutput) {
+        BuildState state = new BuildState();
+        state.optionsFingerprint = options.fingerprint();
+        boolean fullBuild = !previous.optionsFingerprint.equals(state.optionsFingerprint);
+
+        Map<String, String> hashes = new HashMap<>();
+        Map<String, FileDeclarations> changedFiles = new LinkedHashMap<>();
+        Set<String> affectedTypes = new HashSet<>();
+        for (Map.Entry<String, ? extends CharSequence> source : sources.entrySet()) {
+            String fileName = source.getKey();
+            String hash = BuildState.hash(source.getValue());
+            hashes.put(fileName, hash);
+            FileState old = fullBuild ? null : previous.files.get(fileName);
+            if (old != null && old.hash().equals(hash) && isOutputPresent(old, previousOutput)) continue;
+            FileDeclarations declarations = FileDeclarations.of(fileName, FileParser.parse(fileName, source.getValue()));
+            changedFiles.put(fileName, declarations);
+            affectedTypes.addAll(declarations.getAffectedTypes());
+            if (old != null) affectedTypes.addAll(old.declarations().getAffectedTypes());
+        }
+        Set<String> removedFiles = new LinkedHashSet<>(previous.files.keySet());
+        removedFiles.removeAll(sources.keySet());
+        for (String removedFile : removedFiles) {
+            affectedTypes.addAll(previous.files.get(removedFile).declarations().getAffectedTypes());
+        }
+
+        //Files to compile, in input order
+        Map<String, CharSequence> dirtySources = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends CharSequence> source : sources.entrySet()) {
+            String fileName = source.getKey();
+            if (changedFiles.containsKey(fileName)
+                    || !Collections.disjoint(previous.files.get(fileName).referencedTypes(), affectedTypes)) {
+                dirtySources.put(fileName, source.getValue());
+            }
+        }
+
+        //Everything the dirty and removed files declared before is either compiled again or gone,
+        //stale class files of those must not be picked up while compiling
+        Set<String> staleTypes = new HashSet<>();
+        for (String fileName : dirtySources.keySet()) {
+            FileState old = previous.files.get(fileName);
+            if (old != null) staleTypes.addAll(old.declarations().declaredTypes());
+        }
+        for (String removedFile : removedFiles) {
+            staleTypes.addAll(previous.files.get(removedFile).declarations().declaredTypes());
+        }
+
+        Map<String, byte[]> classes = Map.of();
+        Map<String, Set<String>> referencedTypesByFile = Map.of();
+        if (!dirtySources.isEmpty()) {
+            StructureCompiler compiler = new StructureCompiler(dirtySources, options);
+            compiler.bytecodeCache = bytecodeCache;
+            compiler.classRepository = new ClassRepository(
+                    internalName -> staleTypes.contains(internalName) ? null : previousOutput.getClassBytes(internalName),
+                    ClassRepository.shared());
+            //Impls of the files that are not compiled again still have to be known for casts and trait method calls
+            for (Map.Entry<String, FileState> entry : previous.files.entrySet()) {
+                if (dirtySources.containsKey(entry.getKey()) || removedFiles.contains(entry.getKey())) continue;
+                entry.getValue().declarations().implementedTraits().forEach((struct, traits) ->
+                        compiler.implementedTraitsForStruct.computeIfAbsent(struct, s -> new HashSet<>()).addAll(traits));
+                //and so do their columnar structs, as arrays of them are compiled differently, and their structs
+                for (String declaredType : entry.getValue().declarations().declaredTypes()) {
+                    String columnarStruct = ColumnarContainerCompiler.getStructName(declaredType);
+                    if (columnarStruct != null) compiler.columnarStructs.add(columnarStruct);
+                    if (StructureCompiler.hasStructInitializer(compiler.classRepository.getClassNode(declaredType))) {
+                        compiler.structNames.add(declaredType);
+                    }
+                }
+            }
+            classes = compiler.compile();
+            referencedTypesByFile = compiler.referencedTypes;
+        }
+
+        Set<String> declaredTypes = new HashSet<>();
+        for (String fileName : sources.keySet()) {
+            FileState old = previous.files.get(fileName);
+            FileState fileState;
+            if (!dirtySources.containsKey(fileName)) {
+                fileState = old;
+            } else {
+                FileDeclarations declarations = changedFiles.containsKey(fileName) ? changedFiles.get(fileName) : old.declarations();
+                Set<String> referencedTypes = new TreeSet<>(referencedTypesByFile.getOrDefault(fileName, Set.of()));
+                referencedTypes.removeAll(declarations.declaredTypes());
+                fileState = new FileState(hashes.get(fileName), declarations, referencedTypes);
+            }
+            state.files.put(fileName, fileState);
+            declaredTypes.addAll(fileState.declarations().declaredTypes());
+        }
+        Set<String> deletedClasses = new TreeSet<>(staleTypes);
+        deletedClasses.removeAll(declaredTypes);
+
+        return new Result(classes, deletedClasses, dirtySources.keySet(), state);
+    }
+
+    private boolean isOutputPresent(FileState fileState, ClassFileSource previousOutput) {
+        for (String declaredType : fileState.declarations().declaredTypes()) {
+            if (!previousOutput.containsClass(declaredType)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param classes         the classes of the compiled files, to be written next to the existing output
+     * @param deletedClasses  classes of the previous output that no longer exist
+     * @param compiledFiles   the files that were compiled
+     * @param state           the state to pass to the next build
+     */
+    public record Result(Map<String, byte[]> classes, Set<String> deletedClasses, Set<String> compiledFiles, BuildState state) {
+
+    }
+}
@@ -0,0 +1,194 @@
+package me.pr3.atypical.compiler.optimizer;
+
+import me.pr3.atypical.compiler.util.OpcodeUtil;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * Replaces calls to short methods by a copy of their body. Only methods that cannot be overridden are inlined:
+ * static methods (global methods and the static impl bridges) and instance methods of generated classes, as modules,
+ * structs and impl classes are never extended. Interface calls are always kept.
+ * <pre>
+ * ALOAD 1; INVOKEVIRTUAL LinkedList.size ()I
+ * </pre>
+ * becomes
+ * <pre>
+ * ALOAD 1; ASTORE 4; ALOAD 4; INVOKESTATIC java/util/Objects.requireNonNull; POP
+ * ALOAD 4; GETFIELD LinkedList.size : I; GOTO end
+ * end:
+ * </pre>
+ * The arguments are stored into fresh locals behind the ones of the caller and every return becomes a jump behind
+ * the copied body, which is fine as statements never leave anything else on the stack. A call on null still throws a
+ * NullPointerException before any of the body runs. Calls inside an inlined body are inlined as well, up to a fixed
+ * depth and never recursively.
+ *
+ * @author tim
+ */
+public class MethodInliner {
+
+    //Callers stop growing at this many instructions, well below the size HotSpot still compiles
+    private static final int MAX_CALLER_SIZE = 2000;
+    private static final int MAX_DEPTH = 4;
+
+    private final int maxInlineSize;
+    //Bodies are copied before anything is inlined, so the result does not depend on the order methods are visited in
+    private final Map<String, MethodNode> inlinableMethods = new HashMap<>();
+
+    /**
+     * @param classNodes    the classes whose methods may be inlined
+     * @param maxInlineSize the maximum number of instructions of an inlined method, without its return
+     */
+    public MethodInliner(Collection<ClassNode> classNodes, int maxInlineSize) {
+        this.maxInlineSize = maxInlineSize;
+        for (ClassNode classNode : classNodes) {
+            if ((classNode.access & Opcodes.ACC_INTERFACE) != 0) continue;
+            for (MethodNode methodNode : classNode.methods) {
+                if (!isInlinable(methodNode)) continue;
+                MethodNode copy = new MethodNode(methodNode.access, methodNode.name, methodNode.desc, methodNode.signature,
+                        methodNode.exceptions == null ? null : methodNode.exceptions.toArray(String[]::new));
+                methodNode.accept(copy);
+                inlinableMethods.put(getKey(classNode.name, methodNode.name, methodNode.desc), copy);
+            }
+        }
+    }
+
+    public void inline(ClassNode classNode) {
+        for (MethodNode methodNode : classNode.methods) {
+            if (methodNode.instructions.size() > 0) inline(classNode.name, methodNode);
+        }
+    }
+
+    public void inline(String owner, MethodNode methodNode) {
+        Caller caller = new Caller(methodNode);
+        Deque<String> inlining = new ArrayDeque<>();
+        inlining.push(getKey(owner, methodNode.name, methodNode.desc));
+        inlineCalls(caller, methodNode.instructions.toArray(), inlining);
+    }
+
+    private void inlineCalls(Caller caller, AbstractInsnNode[] instructions, Deque<String> inlining) {
+        for (AbstractInsnNode insn : instructions) {
+            if (!(insn instanceof MethodInsnNode call)) continue;
+            if (call.getOpcode() != Opcodes.INVOKESTATIC && call.getOpcode() != Opcodes.INVOKEVIRTUAL) continue;
+            String key = getKey(call.owner, call.name, call.desc);
+            MethodNode callee = inlinableMethods.get(key);
+            if (callee == null || inlining.contains(key) || inlining.size() > MAX_DEPTH) continue;
+            if (((callee.access & Opcodes.ACC_STATIC) != 0) != (call.getOpcode() == Opcodes.INVOKESTATIC)) continue;
+            int calleeSize = getSize(callee);
+            if (caller.size + calleeSize > MAX_CALLER_SIZE) return;
+
+            InsnList body = copyBody(caller, callee);
+            AbstractInsnNode[] inserted = body.toArray();
+            caller.methodNode.instructions.insert(call, body);
+            caller.methodNode.instructions.remove(call);
+            caller.size += calleeSize;
+
+            inlining.push(key);
+            inlineCalls(caller, inserted, inlining);
+            inlining.pop();
+        }
+    }
+
+    private InsnList copyBody(Caller caller, MethodNode callee) {
+        InsnList body = new InsnList();
+        boolean isStatic = (callee.access & Opcodes.ACC_STATIC) != 0;
+        int base = caller.nextLocal;
+        caller.nextLocal += getLocalsSize(callee);
+
+        //The arguments are on the stack in declaration order above the receiver
+        Type[] argumentTypes = Type.getArgumentTypes(callee.desc);
+        int[] argumentLocals = new int[argumentTypes.length];
+        int local = base + (isStatic ? 0 : 1);
+        for (int i = 0; i < argumentTypes.length; i++) {
+            argumentLocals[i] = local;
+            local += argumentTypes[i].getSize();
+        }
+        for (int i = argumentTypes.length - 1; i >= 0; i--) {
+            body.add(new VarInsnNode(argumentTypes[i].getOpcode(Opcodes.ISTORE), argumentLocals[i]));
+        }
+        if (!isStatic) {
+            body.add(new VarInsnNode(Opcodes.ASTORE, base));
+            body.add(new VarInsnNode(Opcodes.ALOAD, base));
+            body.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/util/Objects", "requireNonNull",
+                    "(Ljava/lang/Object;)Ljava/lang/Object;"));
+            body.add(new InsnNode(Opcodes.POP));
+        }
+
+        Map<LabelNode, LabelNode> labels = new HashMap<>();
+        for (AbstractInsnNode insn : callee.instructions) {
+            if (insn instanceof LabelNode label) labels.put(label, new LabelNode());
+        }
+        LabelNode end = new LabelNode();
+        for (AbstractInsnNode insn : callee.instructions) {
+            //Line numbers of the callee would point into the wrong place of the caller's file
+            if (insn instanceof LineNumberNode || insn instanceof FrameNode) continue;
+            if (OpcodeUtil.isReturn(insn.getOpcode())) {
+                body.add(new JumpInsnNode(Opcodes.GOTO, end));
+                continue;
+            }
+            AbstractInsnNode copy = insn.clone(labels);
+            if (copy instanceof VarInsnNode varInsn) varInsn.var += base;
+            if (copy instanceof IincInsnNode iinc) iinc.var += base;
+            body.add(copy);
+        }
+        body.add(end);
+        return body;
+    }
+
+    private boolean isInlinable(MethodNode methodNode) {
+        if ((methodNode.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_SYNCHRONIZED)) != 0) return false;
+        if (methodNode.name.startsWith("<") || methodNode.instructions.size() == 0) return false;
+        if (methodNode.tryCatchBlocks != null && !methodNode.tryCatchBlocks.isEmpty()) return false;
+        return getSize(methodNode) <= maxInlineSize;
+    }
+
+    /**
+     * @return the number of real instructions, not counting returns
+     */
+    private static int getSize(MethodNode methodNode) {
+        int size = 0;
+        for (AbstractInsnNode insn : methodNode.instructions) {
+            if (insn.getOpcode() >= 0 && !OpcodeUtil.isReturn(insn.getOpcode())) size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of local slots the method uses, including its parameters
+     */
+    private static int getLocalsSize(MethodNode methodNode) {
+        int size = Type.getArgumentsAndReturnSizes(methodNode.desc) >> 2;
+        if ((methodNode.access & Opcodes.ACC_STATIC) != 0) size--;
+        for (AbstractInsnNode insn : methodNode.instructions) {
+            if (insn instanceof VarInsnNode varInsn) {
+                boolean wide = switch (varInsn.getOpcode()) {
+                    case Opcodes.LLOAD, Opcodes.DLOAD, Opcodes.LSTORE, Opcodes.DSTORE -> true;
+                    default -> false;
+                };
+                size = Math.max(size, varInsn.var + (wide ? 2 : 1));
+            } else if (insn instanceof IincInsnNode iinc) {
+                size = Math.max(size, iinc.var + 1);
+            }
+        }
+        return size;
+    }
+
+    private static String getKey(String owner, String name, String desc) {
+        return owner + "." + name + desc;
+    }
+
+    private static final class Caller {
+        private final MethodNode methodNode;
+        private int size;
+        //First local that is not used by the caller or anything inlined into it so far
+        private int nextLocal;
+
+        private Caller(MethodNode methodNode) {
+            this.methodNode = methodNode;
+            this.size = getSize(methodNode);
+            this.nextLocal = getLocalsSize(methodNode);
+        }
+    }
+}
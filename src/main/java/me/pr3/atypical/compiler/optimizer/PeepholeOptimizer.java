@@ -0,0 +1,406 @@
+package me.pr3.atypical.compiler.optimizer;
+
+import me.pr3.atypical.compiler.util.OpcodeUtil;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * Peephole rewrites of the generated method bodies, run right before the classes are written.
+ * <p>
+ * Level 1 fuses comparisons that are materialized as 0/1 and then tested again into a single compare and jump,
+ * removes instructions that cancel each other out, threads jumps to jumps and drops jumps to the next instruction
+ * as well as unused labels.
+ * Level 2 additionally turns a store directly followed by a load of the same local into DUP and store, removes
+ * unreachable code and drops line numbers that repeat the current line.
+ * <p>
+ * Frames and max stack/locals are computed by the ClassWriter afterwards, so the rewrites only keep the code valid.
+ *
+ * @author tim
+ */
+public class PeepholeOptimizer {
+
+    //Rewrites can enable each other, so the passes are repeated until nothing changes anymore
+    private static final int MAX_ROUNDS = 32;
+
+    private final int level;
+
+    public PeepholeOptimizer(int level) {
+        this.level = level;
+    }
+
+    public void optimize(ClassNode classNode) {
+        for (MethodNode methodNode : classNode.methods) {
+            if (methodNode.instructions.size() > 0) optimize(methodNode);
+        }
+    }
+
+    public void optimize(MethodNode methodNode) {
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            boolean changed = fuseBranches(methodNode);
+            changed |= removeCancellingInstructions(methodNode);
+            changed |= threadJumps(methodNode);
+            if (level >= 2) {
+                changed |= replaceStoreLoads(methodNode);
+                changed |= removeUnreachableCode(methodNode);
+            }
+            changed |= removeUnusedLabels(methodNode);
+            if (!changed) break;
+        }
+        if (level >= 2) {
+            removeRepeatedLineNumbers(methodNode);
+            removeUnusedLabels(methodNode);
+        }
+    }
+
+    /**
+     * <code>IFxx L1; ICONST_0; GOTO L2; L1: ICONST_1; L2: IFEQ L3</code> as emitted for a comparison used as a
+     * condition becomes <code>IF!xx L3</code>, IFNE keeps the original comparison.
+     * A constant condition like <code>ICONST_1; IFEQ L</code> becomes a GOTO or is removed.
+     */
+    private boolean fuseBranches(MethodNode methodNode) {
+        Set<LabelNode> jumpTargets = getJumpTargets(methodNode);
+        Map<LabelNode, Integer> references = countJumpReferences(methodNode);
+        boolean changed = false;
+        for (AbstractInsnNode insn = methodNode.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if ((insn.getOpcode() == Opcodes.ICONST_0 || insn.getOpcode() == Opcodes.ICONST_1)
+                    && nextInsn(insn, jumpTargets, null) instanceof JumpInsnNode test
+                    && (test.getOpcode() == Opcodes.IFEQ || test.getOpcode() == Opcodes.IFNE)) {
+                boolean taken = (insn.getOpcode() == Opcodes.ICONST_0) == (test.getOpcode() == Opcodes.IFEQ);
+                AbstractInsnNode previous = insn.getPrevious();
+                methodNode.instructions.remove(insn);
+                if (taken) {
+                    test.setOpcode(Opcodes.GOTO);
+                } else {
+                    methodNode.instructions.remove(test);
+                }
+                changed = true;
+                //The next round starts over
+                if (previous == null) break;
+                insn = previous;
+                continue;
+            }
+            if (!(insn instanceof JumpInsnNode compare) || !OpcodeUtil.isConditionalJump(compare.getOpcode())) continue;
+            AbstractInsnNode zero = nextInsn(compare, jumpTargets, null);
+            if (zero == null || zero.getOpcode() != Opcodes.ICONST_0) continue;
+            if (!(nextInsn(zero, jumpTargets, null) instanceof JumpInsnNode skip) || skip.getOpcode() != Opcodes.GOTO) continue;
+            AbstractInsnNode one = nextInsn(skip, jumpTargets, compare.label);
+            if (one == null || one.getOpcode() != Opcodes.ICONST_1) continue;
+            if (!(nextInsn(one, jumpTargets, skip.label) instanceof JumpInsnNode test)) continue;
+            if (test.getOpcode() != Opcodes.IFEQ && test.getOpcode() != Opcodes.IFNE) continue;
+            //The 0/1 value must not be reachable from anywhere else
+            if (references.get(compare.label) != 1 || references.get(skip.label) != 1) continue;
+
+            if (test.getOpcode() == Opcodes.IFEQ) {
+                compare.setOpcode(OpcodeUtil.invertJump(compare.getOpcode()));
+            }
+            compare.label = test.label;
+            methodNode.instructions.remove(zero);
+            methodNode.instructions.remove(skip);
+            methodNode.instructions.remove(one);
+            methodNode.instructions.remove(test);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Removes pairs like <code>ILOAD 1; ISTORE 1</code>, <code>ALOAD 0; POP</code> or <code>SWAP; SWAP</code> and
+     * shortens the <code>DUP; DUP2_X1; POP2</code> shuffle to <code>DUP_X1; SWAP</code>.
+     */
+    private boolean removeCancellingInstructions(MethodNode methodNode) {
+        InsnList instructions = methodNode.instructions;
+        Set<LabelNode> jumpTargets = getJumpTargets(methodNode);
+        boolean changed = false;
+        AbstractInsnNode insn = instructions.getFirst();
+        while (insn != null) {
+            AbstractInsnNode next = nextInsn(insn, jumpTargets, null);
+            if (insn.getOpcode() < 0 || next == null) {
+                insn = insn.getNext();
+                continue;
+            }
+            int opcode = insn.getOpcode();
+            int nextOpcode = next.getOpcode();
+            AbstractInsnNode previous = insn.getPrevious();
+            boolean cancels = (isLoad(opcode) && nextOpcode == opcode + (Opcodes.ISTORE - Opcodes.ILOAD)
+                    && ((VarInsnNode) insn).var == ((VarInsnNode) next).var)
+                    || (nextOpcode == Opcodes.POP && getPushedSize(insn) == 1)
+                    || (nextOpcode == Opcodes.POP2 && getPushedSize(insn) == 2)
+                    || (opcode == Opcodes.DUP && nextOpcode == Opcodes.POP)
+                    || (opcode == Opcodes.DUP2 && nextOpcode == Opcodes.POP2)
+                    || (opcode == Opcodes.SWAP && nextOpcode == Opcodes.SWAP);
+            AbstractInsnNode pop = opcode == Opcodes.DUP && nextOpcode == Opcodes.DUP2_X1 ? nextInsn(next, jumpTargets, null) : null;
+            if (cancels) {
+                instructions.remove(insn);
+                instructions.remove(next);
+            } else if (pop != null && pop.getOpcode() == Opcodes.POP2) {
+                //[b, a] -> [a, a, b]
+                instructions.set(insn, new InsnNode(Opcodes.DUP_X1));
+                instructions.set(next, new InsnNode(Opcodes.SWAP));
+                instructions.remove(pop);
+            } else {
+                insn = insn.getNext();
+                continue;
+            }
+            changed = true;
+            //Removing a pair can make the surrounding instructions cancel each other out as well
+            insn = previous != null ? previous : instructions.getFirst();
+        }
+        return changed;
+    }
+
+    /**
+     * Retargets jumps to a GOTO at the final destination, replaces a GOTO to a return with the return itself, removes
+     * a GOTO to the next instruction and turns <code>IFxx L1; GOTO L2; L1:</code> into <code>IF!xx L2; L1:</code>.
+     */
+    private boolean threadJumps(MethodNode methodNode) {
+        InsnList instructions = methodNode.instructions;
+        Set<LabelNode> jumpTargets = getJumpTargets(methodNode);
+        Set<AbstractInsnNode> removed = new HashSet<>();
+        boolean changed = false;
+        for (AbstractInsnNode insn : instructions.toArray()) {
+            if (!(insn instanceof JumpInsnNode jump) || jump.getOpcode() == Opcodes.JSR || removed.contains(jump)) continue;
+
+            LabelNode target = jump.label;
+            AbstractInsnNode destination = firstInsnAt(target);
+            Set<LabelNode> visited = new HashSet<>();
+            visited.add(target);
+            while (destination instanceof JumpInsnNode next && next.getOpcode() == Opcodes.GOTO && visited.add(next.label)) {
+                target = next.label;
+                destination = firstInsnAt(target);
+            }
+            if (target != jump.label) {
+                jump.label = target;
+                jumpTargets.add(target);
+                changed = true;
+            }
+
+            if (jump.getOpcode() == Opcodes.GOTO) {
+                if (destination != null && OpcodeUtil.isReturn(destination.getOpcode())) {
+                    instructions.set(jump, new InsnNode(destination.getOpcode()));
+                    changed = true;
+                } else if (fallsInto(jump, target)) {
+                    instructions.remove(jump);
+                    changed = true;
+                }
+            } else if (nextInsn(jump, jumpTargets, null) instanceof JumpInsnNode skip && skip.getOpcode() == Opcodes.GOTO
+                    && fallsInto(skip, jump.label)) {
+                jump.setOpcode(OpcodeUtil.invertJump(jump.getOpcode()));
+                jump.label = skip.label;
+                instructions.remove(skip);
+                removed.add(skip);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * <code>ISTORE 1; ILOAD 1</code> -> <code>DUP; ISTORE 1</code>
+     */
+    private boolean replaceStoreLoads(MethodNode methodNode) {
+        Set<LabelNode> jumpTargets = getJumpTargets(methodNode);
+        boolean changed = false;
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (!(insn instanceof VarInsnNode store) || store.getOpcode() < Opcodes.ISTORE || store.getOpcode() > Opcodes.ASTORE) continue;
+            if (!(nextInsn(store, jumpTargets, null) instanceof VarInsnNode load)) continue;
+            if (load.getOpcode() != store.getOpcode() - (Opcodes.ISTORE - Opcodes.ILOAD) || load.var != store.var) continue;
+            boolean wide = store.getOpcode() == Opcodes.LSTORE || store.getOpcode() == Opcodes.DSTORE;
+            methodNode.instructions.insertBefore(store, new InsnNode(wide ? Opcodes.DUP2 : Opcodes.DUP));
+            methodNode.instructions.remove(load);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private boolean removeUnreachableCode(MethodNode methodNode) {
+        InsnList instructions = methodNode.instructions;
+        AbstractInsnNode[] nodes = instructions.toArray();
+        boolean[] reachable = new boolean[nodes.length];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        markReachable(0, reachable, worklist);
+        boolean handlersAdded = true;
+        while (handlersAdded) {
+            while (!worklist.isEmpty()) {
+                int index = worklist.pop();
+                AbstractInsnNode node = nodes[index];
+                if (node instanceof JumpInsnNode jump) {
+                    markReachable(instructions.indexOf(jump.label), reachable, worklist);
+                } else if (node instanceof TableSwitchInsnNode tableSwitch) {
+                    markReachable(instructions.indexOf(tableSwitch.dflt), reachable, worklist);
+                    tableSwitch.labels.forEach(label -> markReachable(instructions.indexOf(label), reachable, worklist));
+                } else if (node instanceof LookupSwitchInsnNode lookupSwitch) {
+                    markReachable(instructions.indexOf(lookupSwitch.dflt), reachable, worklist);
+                    lookupSwitch.labels.forEach(label -> markReachable(instructions.indexOf(label), reachable, worklist));
+                }
+                if (!OpcodeUtil.isUnconditionalExit(node.getOpcode()) && index + 1 < nodes.length) {
+                    markReachable(index + 1, reachable, worklist);
+                }
+            }
+            handlersAdded = false;
+            for (TryCatchBlockNode tryCatchBlock : methodNode.tryCatchBlocks) {
+                int handler = instructions.indexOf(tryCatchBlock.handler);
+                if (!reachable[handler] && containsReachableInsn(tryCatchBlock, nodes, reachable, instructions)) {
+                    markReachable(handler, reachable, worklist);
+                    handlersAdded = true;
+                }
+            }
+        }
+
+        methodNode.tryCatchBlocks.removeIf(tryCatchBlock -> !containsReachableInsn(tryCatchBlock, nodes, reachable, instructions));
+        boolean changed = false;
+        for (int i = 0; i < nodes.length; i++) {
+            if (!reachable[i] && nodes[i].getOpcode() >= 0) {
+                instructions.remove(nodes[i]);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static void markReachable(int index, boolean[] reachable, Deque<Integer> worklist) {
+        if (!reachable[index]) {
+            reachable[index] = true;
+            worklist.push(index);
+        }
+    }
+
+    private static boolean containsReachableInsn(TryCatchBlockNode tryCatchBlock, AbstractInsnNode[] nodes, boolean[] reachable, InsnList instructions) {
+        int end = instructions.indexOf(tryCatchBlock.end);
+        for (int i = instructions.indexOf(tryCatchBlock.start); i < end; i++) {
+            if (reachable[i] && nodes[i].getOpcode() >= 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the labels nothing refers to, they would otherwise keep the instructions around them from being matched.
+     */
+    private boolean removeUnusedLabels(MethodNode methodNode) {
+        Set<LabelNode> used = getJumpTargets(methodNode);
+        if (methodNode.localVariables != null) {
+            for (LocalVariableNode localVariable : methodNode.localVariables) {
+                used.add(localVariable.start);
+                used.add(localVariable.end);
+            }
+        }
+        boolean changed = false;
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (insn instanceof LineNumberNode lineNumber) used.add(lineNumber.start);
+        }
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (insn instanceof LabelNode label && !used.contains(label)) {
+                methodNode.instructions.remove(label);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The line number table maps code to the line of the last entry before it, so an entry for the line that is
+     * already current does not change anything. Several statements on one line each emit such an entry.
+     */
+    private void removeRepeatedLineNumbers(MethodNode methodNode) {
+        Map<LabelNode, List<LineNumberNode>> lineNumbers = new HashMap<>();
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (insn instanceof LineNumberNode lineNumber) {
+                lineNumbers.computeIfAbsent(lineNumber.start, label -> new ArrayList<>()).add(lineNumber);
+            }
+        }
+        int currentLine = -1;
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (!(insn instanceof LabelNode label)) continue;
+            for (LineNumberNode lineNumber : lineNumbers.getOrDefault(label, List.of())) {
+                if (lineNumber.line == currentLine) {
+                    methodNode.instructions.remove(lineNumber);
+                } else {
+                    currentLine = lineNumber.line;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the next real instruction after insn, or null if control can enter in between, i.e. a jump target other
+     * than expectedLabel lies in between. If expectedLabel is not null it has to lie in between.
+     */
+    private static AbstractInsnNode nextInsn(AbstractInsnNode insn, Set<LabelNode> jumpTargets, LabelNode expectedLabel) {
+        boolean foundExpectedLabel = expectedLabel == null;
+        for (AbstractInsnNode node = insn.getNext(); node != null; node = node.getNext()) {
+            if (node.getOpcode() >= 0) return foundExpectedLabel ? node : null;
+            if (node == expectedLabel) {
+                foundExpectedLabel = true;
+            } else if (node instanceof LabelNode label && jumpTargets.contains(label)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static AbstractInsnNode firstInsnAt(LabelNode label) {
+        AbstractInsnNode node = label;
+        while (node != null && node.getOpcode() < 0) node = node.getNext();
+        return node;
+    }
+
+    /**
+     * @return whether the label lies between insn and the next real instruction
+     */
+    private static boolean fallsInto(AbstractInsnNode insn, LabelNode label) {
+        for (AbstractInsnNode node = insn.getNext(); node != null && node.getOpcode() < 0; node = node.getNext()) {
+            if (node == label) return true;
+        }
+        return false;
+    }
+
+    private static Set<LabelNode> getJumpTargets(MethodNode methodNode) {
+        return new HashSet<>(countJumpReferences(methodNode).keySet());
+    }
+
+    /**
+     * Counts the jumps, switch cases and try catch blocks referring to each label.
+     */
+    private static Map<LabelNode, Integer> countJumpReferences(MethodNode methodNode) {
+        Map<LabelNode, Integer> references = new HashMap<>();
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (insn instanceof JumpInsnNode jump) {
+                references.merge(jump.label, 1, Integer::sum);
+            } else if (insn instanceof TableSwitchInsnNode tableSwitch) {
+                references.merge(tableSwitch.dflt, 1, Integer::sum);
+                tableSwitch.labels.forEach(label -> references.merge(label, 1, Integer::sum));
+            } else if (insn instanceof LookupSwitchInsnNode lookupSwitch) {
+                references.merge(lookupSwitch.dflt, 1, Integer::sum);
+                lookupSwitch.labels.forEach(label -> references.merge(label, 1, Integer::sum));
+            }
+        }
+        for (TryCatchBlockNode tryCatchBlock : methodNode.tryCatchBlocks) {
+            references.merge(tryCatchBlock.start, 1, Integer::sum);
+            references.merge(tryCatchBlock.end, 1, Integer::sum);
+            references.merge(tryCatchBlock.handler, 1, Integer::sum);
+        }
+        return references;
+    }
+
+    private static boolean isLoad(int opcode) {
+        return opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD;
+    }
+
+    /**
+     * @return the stack size pushed by an instruction without side effects, 0 for any other instruction
+     */
+    private static int getPushedSize(AbstractInsnNode insn) {
+        int opcode = insn.getOpcode();
+        if (opcode == Opcodes.LLOAD || opcode == Opcodes.DLOAD
+                || (opcode >= Opcodes.LCONST_0 && opcode <= Opcodes.LCONST_1)
+                || (opcode >= Opcodes.DCONST_0 && opcode <= Opcodes.DCONST_1)) return 2;
+        if (isLoad(opcode) || (opcode >= Opcodes.ACONST_NULL && opcode <= Opcodes.FCONST_2)
+                || opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) return 1;
+        if (insn instanceof LdcInsnNode ldc) {
+            if (ldc.cst instanceof Long || ldc.cst instanceof Double) return 2;
+            if (ldc.cst instanceof Integer || ldc.cst instanceof Float || ldc.cst instanceof String) return 1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,372 @@
+package me.pr3.atypical.compiler.optimizer;
+
+import me.pr3.atypical.compiler.StructureCompiler;
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Replaces struct instances that never leave the method they are created in by one local per field.
+ * <pre>
+ * NEW Vec; DUP; x; y; ACONST_NULL; INVOKESPECIAL Vec.&lt;init&gt;(IILjava/lang/Void;)V; ASTORE 3
+ * ALOAD 3; GETFIELD Vec.x : I
+ * </pre>
+ * becomes
+ * <pre>
+ * x; y; ISTORE 5; ISTORE 4
+ * ILOAD 4
+ * </pre>
+ * The local the struct is stored in must not be assigned anywhere else and every load of it has to be the receiver
+ * of a GETFIELD or PUTFIELD on the struct. Any other use of the reference (passing it to a method, storing it
+ * somewhere else, comparing or returning it) counts as an escape and the allocation is kept.
+ *
+ * @author tim
+ */
+public class ScalarReplacement {
+
+    private final Function<String, ClassNode> structLookup;
+
+    /**
+     * @param structLookup finds the class node of a struct declared by the compiled sources by internal name, null
+     * for any other class, as the constructor of a library class may do more than assign its fields
+     */
+    public ScalarReplacement(Function<String, ClassNode> structLookup) {
+        this.structLookup = structLookup;
+    }
+
+    public void optimize(ClassNode classNode) {
+        for (MethodNode methodNode : classNode.methods) {
+            if (methodNode.instructions.size() > 0) optimize(classNode.name, methodNode);
+        }
+    }
+
+    public void optimize(String owner, MethodNode methodNode) {
+        List<Candidate> candidates = findCandidates(methodNode);
+        if (candidates.isEmpty()) return;
+
+        UseRecorder uses = new UseRecorder();
+        Frame<SourceValue>[] frames;
+        try {
+            computeMaxs(methodNode);
+            frames = new Analyzer<>(uses).analyze(owner, methodNode);
+        } catch (AnalyzerException e) {
+            return;
+        }
+        Map<AbstractInsnNode, Set<AbstractInsnNode>> stackManipulations = findStackManipulations(methodNode, frames);
+
+        //Candidates do not share instructions, so all of them can be checked against the same frames
+        List<Candidate> replaceable = candidates.stream()
+                .filter(candidate -> isReplaceable(candidate, methodNode, frames, uses, stackManipulations))
+                .toList();
+        int nextLocal = methodNode.maxLocals;
+        for (Candidate candidate : replaceable) {
+            nextLocal = replace(candidate, methodNode, nextLocal);
+        }
+    }
+
+    /**
+     * Finds <code>INVOKESPECIAL Struct.&lt;init&gt;(...Ljava/lang/Void;)V; ASTORE n</code> where the struct has one
+     * field per constructor parameter and n is only assigned there.
+     */
+    private List<Candidate> findCandidates(MethodNode methodNode) {
+        List<Candidate> candidates = new ArrayList<>();
+        int firstLocal = (Type.getArgumentsAndReturnSizes(methodNode.desc) >> 2) - ((methodNode.access & Opcodes.ACC_STATIC) != 0 ? 1 : 0);
+        for (AbstractInsnNode insn : methodNode.instructions) {
+            if (!(insn instanceof MethodInsnNode init) || init.getOpcode() != Opcodes.INVOKESPECIAL
+                    || !init.name.equals("<init>") || !init.desc.endsWith(StructureCompiler.STRUCT_INITIALIZER_SUFFIX)) continue;
+            if (!(nextRealInsn(init) instanceof VarInsnNode store) || store.getOpcode() != Opcodes.ASTORE) continue;
+            if (store.var < firstLocal || countStores(methodNode, store.var) != 1) continue;
+            List<FieldNode> fields = getStructFields(init.owner, init.desc);
+            if (fields != null) candidates.add(new Candidate(init, store, fields));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the instance fields of the struct in constructor parameter order, null if the constructor does not
+     * just take one value per field
+     */
+    private List<FieldNode> getStructFields(String structName, String initDesc) {
+        ClassNode struct = structLookup.apply(structName);
+        if (struct == null || (struct.access & Opcodes.ACC_INTERFACE) != 0 || !"java/lang/Object".equals(struct.superName)) {
+            return null;
+        }
+        List<FieldNode> fields = struct.fields.stream().filter(field -> (field.access & Opcodes.ACC_STATIC) == 0).toList();
+        Type[] parameters = Type.getArgumentTypes(initDesc);
+        if (parameters.length != fields.size() + 1) return null;
+        for (int i = 0; i < fields.size(); i++) {
+            if (!parameters[i].getDescriptor().equals(fields.get(i).desc)) return null;
+        }
+        return fields;
+    }
+
+    private boolean isReplaceable(Candidate candidate, MethodNode methodNode, Frame<SourceValue>[] frames,
+                                  UseRecorder uses, Map<AbstractInsnNode, Set<AbstractInsnNode>> stackManipulations) {
+        InsnList instructions = methodNode.instructions;
+        MethodInsnNode init = candidate.init;
+        Frame<SourceValue> initFrame = frames[instructions.indexOf(init)];
+        if (initFrame == null || !(previousRealInsn(init) instanceof InsnNode marker) || marker.getOpcode() != Opcodes.ACONST_NULL) {
+            return false;
+        }
+        //NEW Struct; DUP; ...; INVOKESPECIAL, the analyzer attributes both copies left by the DUP to the DUP itself
+        SourceValue receiver = initFrame.getStack(initFrame.getStackSize() - Type.getArgumentTypes(init.desc).length - 1);
+        if (receiver.insns.size() != 1 || !(receiver.insns.iterator().next() instanceof InsnNode dup) || dup.getOpcode() != Opcodes.DUP) {
+            return false;
+        }
+        if (!(previousRealInsn(dup) instanceof TypeInsnNode newInsn) || newInsn.getOpcode() != Opcodes.NEW || !newInsn.desc.equals(init.owner)) {
+            return false;
+        }
+        if (!uses.get(newInsn).equals(Set.of(new Use(dup, 0)))
+                || !uses.get(dup).equals(Set.of(new Use(init, 0), new Use(candidate.store, 0)))
+                || !stackManipulations.getOrDefault(newInsn, Set.of()).equals(Set.of(dup))
+                || stackManipulations.containsKey(dup)) {
+            return false;
+        }
+        candidate.newInsn = newInsn;
+        candidate.dup = dup;
+        candidate.marker = marker;
+
+        List<VarInsnNode> loads = getLoads(methodNode, candidate.store.var);
+        Set<AbstractInsnNode> loadSet = new HashSet<>(loads);
+        for (VarInsnNode load : loads) {
+            Set<Use> loadUses = uses.get(load);
+            if (loadUses.size() != 1 || stackManipulations.containsKey(load)) return false;
+            Use use = loadUses.iterator().next();
+            if (use.operand() != 0 || !(use.consumer() instanceof FieldInsnNode fieldInsn)) return false;
+            if (fieldInsn.getOpcode() != Opcodes.GETFIELD && fieldInsn.getOpcode() != Opcodes.PUTFIELD) return false;
+            if (!fieldInsn.owner.equals(init.owner) || candidate.getFieldIndex(fieldInsn.name) < 0) return false;
+            //The receiver must not also come from somewhere else on another path
+            Frame<SourceValue> frame = frames[instructions.indexOf(fieldInsn)];
+            int receiverIndex = frame.getStackSize() - (fieldInsn.getOpcode() == Opcodes.GETFIELD ? 1 : 2);
+            if (!loadSet.containsAll(frame.getStack(receiverIndex).insns)) return false;
+            candidate.fieldAccesses.put(load, fieldInsn);
+        }
+        return true;
+    }
+
+    private int replace(Candidate candidate, MethodNode methodNode, int nextLocal) {
+        InsnList instructions = methodNode.instructions;
+        int[] fieldLocals = new int[candidate.fields.size()];
+        for (int i = 0; i < fieldLocals.length; i++) {
+            fieldLocals[i] = nextLocal;
+            nextLocal += Type.getType(candidate.fields.get(i).desc).getSize();
+        }
+
+        instructions.remove(candidate.newInsn);
+        instructions.remove(candidate.dup);
+        instructions.remove(candidate.marker);
+        instructions.remove(candidate.init);
+        //The field values are on the stack in declaration order
+        InsnList stores = new InsnList();
+        for (int i = fieldLocals.length - 1; i >= 0; i--) {
+            stores.add(new VarInsnNode(Type.getType(candidate.fields.get(i).desc).getOpcode(Opcodes.ISTORE), fieldLocals[i]));
+        }
+        instructions.insert(candidate.store, stores);
+        instructions.remove(candidate.store);
+
+        for (Map.Entry<VarInsnNode, FieldInsnNode> fieldAccess : candidate.fieldAccesses.entrySet()) {
+            VarInsnNode load = fieldAccess.getKey();
+            FieldInsnNode fieldInsn = fieldAccess.getValue();
+            int fieldIndex = candidate.getFieldIndex(fieldInsn.name);
+            Type fieldType = Type.getType(fieldInsn.desc);
+            int opcode = fieldType.getOpcode(fieldInsn.getOpcode() == Opcodes.GETFIELD ? Opcodes.ILOAD : Opcodes.ISTORE);
+            instructions.set(fieldInsn, new VarInsnNode(opcode, fieldLocals[fieldIndex]));
+            instructions.remove(load);
+        }
+
+        //Keep the fields visible in a debugger as name$field
+        if (methodNode.localVariables != null) {
+            for (LocalVariableNode localVariable : List.copyOf(methodNode.localVariables)) {
+                if (localVariable.index != candidate.store.var) continue;
+                methodNode.localVariables.remove(localVariable);
+                for (int i = 0; i < fieldLocals.length; i++) {
+                    FieldNode field = candidate.fields.get(i);
+                    methodNode.localVariables.add(new LocalVariableNode(localVariable.name + "$" + field.name, field.desc,
+                            null, localVariable.start, localVariable.end, fieldLocals[i]));
+                }
+            }
+        }
+        return nextLocal;
+    }
+
+    private static List<VarInsnNode> getLoads(MethodNode methodNode, int var) {
+        List<VarInsnNode> loads = new ArrayList<>();
+        for (AbstractInsnNode insn : methodNode.instructions) {
+            if (insn instanceof VarInsnNode load && load.getOpcode() == Opcodes.ALOAD && load.var == var) loads.add(load);
+        }
+        return loads;
+    }
+
+    private static int countStores(MethodNode methodNode, int var) {
+        int stores = 0;
+        for (AbstractInsnNode insn : methodNode.instructions) {
+            if (insn instanceof VarInsnNode store && store.getOpcode() >= Opcodes.ISTORE && store.getOpcode() <= Opcodes.ASTORE && store.var == var) {
+                stores++;
+            } else if (insn instanceof IincInsnNode iinc && iinc.var == var) {
+                stores++;
+            }
+        }
+        return stores;
+    }
+
+    /**
+     * POP, DUP, SWAP and friends move values around without the interpreter seeing them, so the values they touch
+     * are collected from the frames instead. Maps the instruction that produced a value to the instructions moving it.
+     */
+    private static Map<AbstractInsnNode, Set<AbstractInsnNode>> findStackManipulations(MethodNode methodNode, Frame<SourceValue>[] frames) {
+        Map<AbstractInsnNode, Set<AbstractInsnNode>> manipulations = new HashMap<>();
+        AbstractInsnNode[] instructions = methodNode.instructions.toArray();
+        for (int i = 0; i < instructions.length; i++) {
+            int touched = switch (instructions[i].getOpcode()) {
+                case Opcodes.POP, Opcodes.DUP -> 1;
+                case Opcodes.POP2, Opcodes.DUP_X1, Opcodes.DUP2, Opcodes.SWAP -> 2;
+                case Opcodes.DUP_X2, Opcodes.DUP2_X1 -> 3;
+                case Opcodes.DUP2_X2 -> 4;
+                default -> 0;
+            };
+            Frame<SourceValue> frame = frames[i];
+            if (touched == 0 || frame == null) continue;
+            for (int j = Math.max(0, frame.getStackSize() - touched); j < frame.getStackSize(); j++) {
+                for (AbstractInsnNode source : frame.getStack(j).insns) {
+                    manipulations.computeIfAbsent(source, key -> new HashSet<>()).add(instructions[i]);
+                }
+            }
+        }
+        return manipulations;
+    }
+
+    /**
+     * The analyzer needs the max stack and locals, which are otherwise only computed by the ClassWriter.
+     */
+    private static void computeMaxs(MethodNode methodNode) {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V21, Opcodes.ACC_PUBLIC, "MaxsHolder", null, "java/lang/Object", null);
+        methodNode.accept(classWriter);
+        classWriter.visitEnd();
+        new ClassReader(classWriter.toByteArray()).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMaxs(int maxStack, int maxLocals) {
+                        methodNode.maxStack = maxStack;
+                        methodNode.maxLocals = maxLocals;
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    /**
+     * @return the next real instruction, null if a label lies in between as something could jump there
+     */
+    private static AbstractInsnNode nextRealInsn(AbstractInsnNode insn) {
+        AbstractInsnNode node = insn.getNext();
+        while (node != null && node.getOpcode() < 0) {
+            if (node instanceof LabelNode) return null;
+            node = node.getNext();
+        }
+        return node;
+    }
+
+    private static AbstractInsnNode previousRealInsn(AbstractInsnNode insn) {
+        AbstractInsnNode node = insn.getPrevious();
+        while (node != null && node.getOpcode() < 0) {
+            if (node instanceof LabelNode) return null;
+            node = node.getPrevious();
+        }
+        return node;
+    }
+
+    private record Use(AbstractInsnNode consumer, int operand) {
+    }
+
+    /**
+     * Records which instructions consume the values produced by each instruction.
+     */
+    private static final class UseRecorder extends SourceInterpreter {
+        private final Map<AbstractInsnNode, Set<Use>> uses = new HashMap<>();
+
+        private UseRecorder() {
+            super(Opcodes.ASM9);
+        }
+
+        private Set<Use> get(AbstractInsnNode producer) {
+            return uses.getOrDefault(producer, Set.of());
+        }
+
+        private void record(SourceValue value, AbstractInsnNode consumer, int operand) {
+            for (AbstractInsnNode producer : value.insns) {
+                uses.computeIfAbsent(producer, key -> new HashSet<>()).add(new Use(consumer, operand));
+            }
+        }
+
+        @Override
+        public SourceValue copyOperation(AbstractInsnNode insn, SourceValue value) {
+            //Loads copy a local onto the stack, only stores and DUPs consume a stack value
+            if (insn.getOpcode() < Opcodes.ILOAD || insn.getOpcode() > Opcodes.ALOAD) record(value, insn, 0);
+            return super.copyOperation(insn, value);
+        }
+
+        @Override
+        public SourceValue unaryOperation(AbstractInsnNode insn, SourceValue value) {
+            record(value, insn, 0);
+            return super.unaryOperation(insn, value);
+        }
+
+        @Override
+        public SourceValue binaryOperation(AbstractInsnNode insn, SourceValue value1, SourceValue value2) {
+            record(value1, insn, 0);
+            record(value2, insn, 1);
+            return super.binaryOperation(insn, value1, value2);
+        }
+
+        @Override
+        public SourceValue ternaryOperation(AbstractInsnNode insn, SourceValue value1, SourceValue value2, SourceValue value3) {
+            record(value1, insn, 0);
+            record(value2, insn, 1);
+            record(value3, insn, 2);
+            return super.ternaryOperation(insn, value1, value2, value3);
+        }
+
+        @Override
+        public SourceValue naryOperation(AbstractInsnNode insn, List<? extends SourceValue> values) {
+            for (int i = 0; i < values.size(); i++) {
+                record(values.get(i), insn, i);
+            }
+            return super.naryOperation(insn, values);
+        }
+
+        @Override
+        public void returnOperation(AbstractInsnNode insn, SourceValue value, SourceValue expected) {
+            record(value, insn, 0);
+        }
+    }
+
+    private static final class Candidate {
+        private final MethodInsnNode init;
+        private final VarInsnNode store;
+        private final List<FieldNode> fields;
+        //Filled in once the candidate is known to be replaceable
+        private TypeInsnNode newInsn;
+        private InsnNode dup;
+        private InsnNode marker;
+        private final Map<VarInsnNode, FieldInsnNode> fieldAccesses = new LinkedHashMap<>();
+
+        private Candidate(MethodInsnNode init, VarInsnNode store, List<FieldNode> fields) {
+            this.init = init;
+            this.store = store;
+            this.fields = fields;
+        }
+
+        private int getFieldIndex(String name) {
+            for (int i = 0; i < fields.size(); i++) {
+                if (fields.get(i).name.equals(name)) return i;
+            }
+            return -1;
+        }
+    }
+}
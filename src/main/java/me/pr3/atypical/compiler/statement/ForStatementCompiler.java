@@ -0,0 +1,289 @@
+package me.pr3.atypical.compiler.statement;
+
+import me.pr3.atypical.compiler.ColumnarContainerCompiler;
+import me.pr3.atypical.compiler.MethodCompiler;
+import me.pr3.atypical.compiler.expression.ConditionCompiler;
+import me.pr3.atypical.compiler.expression.ConstantEvaluator;
+import me.pr3.atypical.compiler.expression.ExpressionCompiler;
+import me.pr3.atypical.compiler.typing.Type;
+import me.pr3.atypical.compiler.util.NumericUtil;
+import me.pr3.atypical.compiler.util.TypeUtil;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.List;
+
+import static me.pr3.atypical.generated.AtypicalParser.*;
+
+/**
+ * Compiles for loops into the shape of a counted loop, the condition is tested once in front of the loop and then
+ * at its bottom after the update:
+ * <pre>
+ * for (int: i in 0..n) { body }
+ *
+ *     ICONST_0; ISTORE i; ILOAD n; ISTORE end
+ *     ILOAD i; ILOAD end; IF_ICMPGE exit
+ * loop:
+ *     body
+ *     IINC i 1
+ *     ILOAD i; ILOAD end; IF_ICMPLT loop
+ * exit:
+ * </pre>
+ * The end of a range is evaluated once before the loop, <code>for (init; condition; update)</code> tests its
+ * condition the same way.
+ * <p>
+ * <code>for (String: s in values)</code> loops over the elements of an array or a columnar struct container by
+ * index. Anything else has to be an iterator (with <code>hasNext(): bool</code> and <code>next()</code>) or have an
+ * <code>iterator()</code> method returning one, like the Iterable and Iterator traits. These methods are resolved
+ * like any other call on the static type, so for a struct with an impl of the trait they are called directly
+ * instead of through the interface.
+ *
+ * @author tim
+ */
+public class ForStatementCompiler {
+
+    private final StatementCompiler statementCompiler;
+    private final MethodCompiler methodCompiler;
+
+    public ForStatementCompiler(StatementCompiler statementCompiler) {
+        this.statementCompiler = statementCompiler;
+        this.methodCompiler = statementCompiler.methodCompiler;
+    }
+
+    public InsnList compileForStatement(ForStatementContext forStatementContext) {
+        if (forStatementContext.RANGE() != null) {
+            return compileRangeLoop(forStatementContext);
+        }
+        if (forStatementContext.IN() != null) {
+            return compileForEachLoop(forStatementContext);
+        }
+        InsnList insnList = new InsnList();
+        ExpressionCompiler expressionCompiler = new ExpressionCompiler(statementCompiler.structureCompiler, methodCompiler);
+        ConditionCompiler conditionCompiler = new ConditionCompiler(expressionCompiler);
+        ForInitContext forInit = forStatementContext.forInit();
+        if (forInit != null) {
+            insnList.add(forInit.localVariableDeclarationExpression() != null
+                    ? statementCompiler.compileLocalVariableDeclaration(forInit.localVariableDeclarationExpression())
+                    : statementCompiler.compileLocalVariableAssignment(forInit.asignLocalVariableStatement()));
+        }
+        ExpressionContext condition = forStatementContext.expression().isEmpty() ? null : forStatementContext.expression(0);
+        LabelNode startOfLoop = new LabelNode();
+        LabelNode endOfLoop = new LabelNode();
+        if (condition != null) {
+            insnList.add(conditionCompiler.compileJump(condition, endOfLoop, false));
+        }
+        insnList.add(startOfLoop);
+        for (StatementContext statementContext : forStatementContext.statement()) {
+            insnList.add(statementCompiler.compileStatement(statementContext));
+        }
+        ForUpdateContext forUpdate = forStatementContext.forUpdate();
+        if (forUpdate != null && forUpdate.incrementStatement() != null) {
+            insnList.add(statementCompiler.compileIncrementStatement(forUpdate.incrementStatement()));
+        } else if (forUpdate != null && forUpdate.asignLocalVariableStatement() != null) {
+            insnList.add(statementCompiler.compileLocalVariableAssignment(forUpdate.asignLocalVariableStatement()));
+        } else if (forUpdate != null) {
+            insnList.add(expressionCompiler.compileExpression(forUpdate.expression()).insnList());
+        }
+        if (condition != null) {
+            insnList.add(conditionCompiler.compileJump(condition, startOfLoop, true));
+        } else {
+            insnList.add(new JumpInsnNode(Opcodes.GOTO, startOfLoop));
+        }
+        insnList.add(endOfLoop);
+        return insnList;
+    }
+
+    private InsnList compileRangeLoop(ForStatementContext forStatementContext) {
+        InsnList insnList = new InsnList();
+        ExpressionCompiler expressionCompiler = new ExpressionCompiler(statementCompiler.structureCompiler, methodCompiler);
+        String typeDesc = TypeUtil.toDesc(forStatementContext.typeName().getText(), statementCompiler.structureCompiler.imports.get(methodCompiler.fileName));
+        Type type = Type.fromDescriptor(typeDesc);
+        if (type.getKind() != Type.Kind.INT && type.getKind() != Type.Kind.LONG) {
+            throw new IllegalArgumentException("Ranges can only be iterated with int or long: " + forStatementContext.getText());
+        }
+        String variableName = forStatementContext.variableName().getText();
+
+        ExpressionCompiler.Result from = expressionCompiler.compileExpression(forStatementContext.from);
+        insnList.add(from.insnList());
+        insnList.add(expressionCompiler.convertForAssignment(from.returnType(), type, forStatementContext.from));
+        int index = methodCompiler.addLocalVar(type, variableName);
+        insnList.add(new VarInsnNode(type.getOpcode(Opcodes.ISTORE), index));
+
+        //A constant end is pushed directly, anything else is evaluated once into a local without a source name
+        ConstantEvaluator.Constant constantEnd = methodCompiler.getConstantEvaluator().evaluate(forStatementContext.to);
+        int endIndex = -1;
+        if (constantEnd == null || !constantEnd.type().equals(type)) {
+            ExpressionCompiler.Result to = expressionCompiler.compileExpression(forStatementContext.to);
+            insnList.add(to.insnList());
+            insnList.add(expressionCompiler.convertForAssignment(to.returnType(), type, forStatementContext.to));
+            endIndex = methodCompiler.addLocalVar(type, variableName + "$end");
+            insnList.add(new VarInsnNode(type.getOpcode(Opcodes.ISTORE), endIndex));
+        }
+
+        LabelNode startOfLoop = new LabelNode();
+        LabelNode endOfLoop = new LabelNode();
+        insnList.add(compileRangeTest(type, index, endIndex, constantEnd, Opcodes.IF_ICMPGE, endOfLoop));
+        insnList.add(startOfLoop);
+        for (StatementContext statementContext : forStatementContext.statement()) {
+            insnList.add(statementCompiler.compileStatement(statementContext));
+        }
+        insnList.add(statementCompiler.compileIncrement(type, index, 1));
+        insnList.add(compileRangeTest(type, index, endIndex, constantEnd, Opcodes.IF_ICMPLT, startOfLoop));
+        insnList.add(endOfLoop);
+        return insnList;
+    }
+
+    private InsnList compileForEachLoop(ForStatementContext forStatementContext) {
+        InsnList insnList = new InsnList();
+        ExpressionCompiler expressionCompiler = new ExpressionCompiler(statementCompiler.structureCompiler, methodCompiler);
+        String typeDesc = TypeUtil.toDesc(forStatementContext.typeName().getText(), statementCompiler.structureCompiler.imports.get(methodCompiler.fileName));
+        statementCompiler.structureCompiler.recordDescriptorReferences(methodCompiler.fileName, typeDesc);
+        Type type = Type.fromDescriptor(typeDesc);
+        String variableName = forStatementContext.variableName().getText();
+        ExpressionCompiler.Result iterable = expressionCompiler.compileExpression(forStatementContext.from);
+        insnList.add(iterable.insnList());
+        Type iterableType = iterable.returnType();
+        String columnarStruct = expressionCompiler.getColumnarStruct(iterableType);
+        if (iterableType.isArrayType() || columnarStruct != null) {
+            insnList.add(compileIndexedLoop(forStatementContext, expressionCompiler, iterableType, columnarStruct, type, variableName));
+        } else {
+            insnList.add(compileIteratorLoop(forStatementContext, expressionCompiler, iterableType, type, variableName));
+        }
+        return insnList;
+    }
+
+    /**
+     * Expects the array or container on the stack
+     */
+    private InsnList compileIndexedLoop(ForStatementContext forStatementContext, ExpressionCompiler expressionCompiler,
+                                        Type arrayType, String columnarStruct, Type type, String variableName) {
+        InsnList insnList = new InsnList();
+        int arrayIndex = methodCompiler.addLocalVar(arrayType, variableName + "$array");
+        int lengthIndex = methodCompiler.addLocalVar(Type.INT, variableName + "$length");
+        int index = methodCompiler.addLocalVar(Type.INT, variableName + "$index");
+        insnList.add(new VarInsnNode(Opcodes.ASTORE, arrayIndex));
+        insnList.add(new VarInsnNode(Opcodes.ALOAD, arrayIndex));
+        if (columnarStruct != null) {
+            insnList.add(new FieldInsnNode(Opcodes.GETFIELD, arrayType.getInternalName(), ColumnarContainerCompiler.LENGTH_FIELD, "I"));
+        } else {
+            insnList.add(new InsnNode(Opcodes.ARRAYLENGTH));
+        }
+        insnList.add(new VarInsnNode(Opcodes.ISTORE, lengthIndex));
+        insnList.add(new InsnNode(Opcodes.ICONST_0));
+        insnList.add(new VarInsnNode(Opcodes.ISTORE, index));
+
+        LabelNode startOfLoop = new LabelNode();
+        LabelNode endOfLoop = new LabelNode();
+        insnList.add(compileIndexTest(index, lengthIndex, Opcodes.IF_ICMPGE, endOfLoop));
+        insnList.add(startOfLoop);
+        insnList.add(new VarInsnNode(Opcodes.ALOAD, arrayIndex));
+        insnList.add(new VarInsnNode(Opcodes.ILOAD, index));
+        Type elementType;
+        if (columnarStruct != null) {
+            insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, arrayType.getInternalName(), "get", "(I)L" + columnarStruct + ";"));
+            elementType = Type.fromInternalName(columnarStruct);
+        } else {
+            elementType = arrayType.getUnderlyingArrayType();
+            insnList.add(new InsnNode(elementType.getOpcode(Opcodes.IALOAD)));
+        }
+        insnList.add(compileElementStore(forStatementContext, expressionCompiler, elementType, type, variableName));
+        for (StatementContext statementContext : forStatementContext.statement()) {
+            insnList.add(statementCompiler.compileStatement(statementContext));
+        }
+        insnList.add(new IincInsnNode(index, 1));
+        insnList.add(compileIndexTest(index, lengthIndex, Opcodes.IF_ICMPLT, startOfLoop));
+        insnList.add(endOfLoop);
+        return insnList;
+    }
+
+    private InsnList compileIndexTest(int index, int lengthIndex, int jump, LabelNode target) {
+        InsnList insnList = new InsnList();
+        insnList.add(new VarInsnNode(Opcodes.ILOAD, index));
+        insnList.add(new VarInsnNode(Opcodes.ILOAD, lengthIndex));
+        insnList.add(new JumpInsnNode(jump, target));
+        return insnList;
+    }
+
+    /**
+     * Expects the iterable or iterator on the stack
+     */
+    private InsnList compileIteratorLoop(ForStatementContext forStatementContext, ExpressionCompiler expressionCompiler,
+                                         Type iterableType, Type type, String variableName) {
+        InsnList insnList = new InsnList();
+        if (iterableType.isPrimitiveType() || iterableType.isUnknownType()) {
+            throw new IllegalArgumentException("Cannot iterate over " + iterableType + ": " + forStatementContext.getText());
+        }
+        Type iteratorType = iterableType;
+        if (compileCall(expressionCompiler, iterableType, "hasNext") == null) {
+            ExpressionCompiler.Result iterator = compileCall(expressionCompiler, iterableType, "iterator");
+            if (iterator == null || iterator.returnType().isPrimitiveType()) {
+                throw new IllegalArgumentException("Cannot iterate over " + iterableType + ", it has neither hasNext() nor iterator(): " + forStatementContext.getText());
+            }
+            insnList.add(iterator.insnList());
+            iteratorType = iterator.returnType();
+        }
+        ExpressionCompiler.Result hasNext = compileCall(expressionCompiler, iteratorType, "hasNext");
+        ExpressionCompiler.Result next = compileCall(expressionCompiler, iteratorType, "next");
+        if (hasNext == null || next == null || hasNext.returnType().getKind() != Type.Kind.BOOLEAN) {
+            throw new IllegalArgumentException("Cannot iterate with " + iteratorType + ", it needs hasNext(): bool and next(): " + forStatementContext.getText());
+        }
+        int iteratorIndex = methodCompiler.addLocalVar(iteratorType, variableName + "$iterator");
+        insnList.add(new VarInsnNode(Opcodes.ASTORE, iteratorIndex));
+
+        LabelNode startOfLoop = new LabelNode();
+        LabelNode endOfLoop = new LabelNode();
+        insnList.add(new VarInsnNode(Opcodes.ALOAD, iteratorIndex));
+        insnList.add(hasNext.insnList());
+        insnList.add(new JumpInsnNode(Opcodes.IFEQ, endOfLoop));
+        insnList.add(startOfLoop);
+        insnList.add(new VarInsnNode(Opcodes.ALOAD, iteratorIndex));
+        insnList.add(next.insnList());
+        insnList.add(compileElementStore(forStatementContext, expressionCompiler, next.returnType(), type, variableName));
+        for (StatementContext statementContext : forStatementContext.statement()) {
+            insnList.add(statementCompiler.compileStatement(statementContext));
+        }
+        insnList.add(new VarInsnNode(Opcodes.ALOAD, iteratorIndex));
+        insnList.add(compileCall(expressionCompiler, iteratorType, "hasNext").insnList());
+        insnList.add(new JumpInsnNode(Opcodes.IFNE, startOfLoop));
+        insnList.add(endOfLoop);
+        return insnList;
+    }
+
+    private ExpressionCompiler.Result compileCall(ExpressionCompiler expressionCompiler, Type receiverType, String methodName) {
+        return expressionCompiler.compileMethodInvocation(receiverType, methodName, List.of(), List.of());
+    }
+
+    /**
+     * Stores the element on the stack into the loop variable, elements typed as obj are cast to the declared type
+     */
+    private InsnList compileElementStore(ForStatementContext forStatementContext, ExpressionCompiler expressionCompiler,
+                                         Type elementType, Type type, String variableName) {
+        InsnList insnList = new InsnList();
+        if (NumericUtil.isNumeric(elementType) || NumericUtil.isNumeric(type)) {
+            insnList.add(expressionCompiler.convertForAssignment(elementType, type, forStatementContext.from));
+        } else if (elementType.isPrimitiveType() != type.isPrimitiveType()) {
+            throw new IllegalArgumentException("Cannot assign elements of type " + elementType + " to " + type + ": " + forStatementContext.getText());
+        } else if (!elementType.equals(type) && !type.isPrimitiveType() && !type.equals(Type.fromInternalName("java/lang/Object"))) {
+            insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, type.isArrayType() ? type.toString() : type.getInternalName()));
+        }
+        int index = methodCompiler.addLocalVar(type, variableName);
+        insnList.add(new VarInsnNode(type.getOpcode(Opcodes.ISTORE), index));
+        return insnList;
+    }
+
+    /**
+     * @param intJump the jump for int, long compares with LCMP and jumps on its result instead
+     */
+    private InsnList compileRangeTest(Type type, int index, int endIndex, ConstantEvaluator.Constant constantEnd, int intJump, LabelNode target) {
+        InsnList insnList = new InsnList();
+        insnList.add(new VarInsnNode(type.getOpcode(Opcodes.ILOAD), index));
+        insnList.add(endIndex >= 0 ? new VarInsnNode(type.getOpcode(Opcodes.ILOAD), endIndex) : constantEnd.toInsn());
+        if (type.getKind() == Type.Kind.LONG) {
+            insnList.add(new InsnNode(Opcodes.LCMP));
+            insnList.add(new JumpInsnNode(intJump == Opcodes.IF_ICMPGE ? Opcodes.IFGE : Opcodes.IFLT, target));
+        } else {
+            insnList.add(new JumpInsnNode(intJump, target));
+        }
+        return insnList;
+    }
+}
@@ -1,14 +1,12 @@
 package me.pr3.atypical.compiler.statement;
 
+import me.pr3.atypical.compiler.expression.ConditionCompiler;
 import me.pr3.atypical.compiler.expression.ExpressionCompiler;
-import me.pr3.atypical.compiler.typing.Type;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 
-import static me.pr3.atypical.compiler.expression.ExpressionCompiler.Result;
-import static me.pr3.atypical.compiler.typing.Type.Kind.*;
 import static me.pr3.atypical.generated.AtypicalParser.*;
 
 /**
@@ -25,12 +23,10 @@ public class IfStatementCompiler {
     public InsnList compileIfStatement(IfStatementContext ifStatementContext){
         InsnList insnList = new InsnList();
         ExpressionCompiler expressionCompiler = new ExpressionCompiler(statementCompiler.structureCompiler, statementCompiler.methodCompiler);
-        Result expressionResult = expressionCompiler.compileExpression(ifStatementContext.expression());
-        if(expressionResult.returnType().getKind() != BOOLEAN)throw new IllegalStateException("If statement expression did not evaluate to boolean");
+        ConditionCompiler conditionCompiler = new ConditionCompiler(expressionCompiler);
         LabelNode endIfBlock = new LabelNode();
         LabelNode endElseBlocks = new LabelNode();
-        insnList.add(expressionResult.insnList());
-        insnList.add(new JumpInsnNode(Opcodes.IFEQ, endIfBlock));
+        insnList.add(conditionCompiler.compileJump(ifStatementContext.expression(), endIfBlock, false));
         for (StatementContext statementContext : ifStatementContext.statement()) {
             insnList.add(statementCompiler.compileStatement(statementContext));
         }
@@ -39,11 +35,8 @@ public class IfStatementCompiler {
         }
         insnList.add(endIfBlock);
         for (ElseIfStatementContext elseIfStatementContext : ifStatementContext.elseIfStatement()) {
-            Result elseIfResult = expressionCompiler.compileExpression(elseIfStatementContext.expression());
-            if(elseIfResult.returnType().getKind() != BOOLEAN)throw new IllegalStateException("Else if statement expression did not evaluate to boolean");
             LabelNode endElseIfBlock = new LabelNode();
-            insnList.add(elseIfResult.insnList());
-            insnList.add(new JumpInsnNode(Opcodes.IFEQ, endElseIfBlock));
+            insnList.add(conditionCompiler.compileJump(elseIfStatementContext.expression(), endElseIfBlock, false));
             for (StatementContext statementContext : elseIfStatementContext.statement()) {
                 insnList.add(statementCompiler.compileStatement(statementContext));
             }
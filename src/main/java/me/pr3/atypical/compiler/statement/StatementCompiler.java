@@ -2,9 +2,12 @@ package me.pr3.atypical.compiler.statement;
 
 import me.pr3.atypical.compiler.MethodCompiler;
 import me.pr3.atypical.compiler.StructureCompiler;
+import me.pr3.atypical.compiler.expression.ConstantEvaluator;
 import me.pr3.atypical.compiler.expression.ExpressionCompiler;
 import me.pr3.atypical.compiler.typing.Descriptor;
 import me.pr3.atypical.compiler.typing.Type;
+import me.pr3.atypical.compiler.util.NumericUtil;
+import me.pr3.atypical.compiler.util.OpcodeUtil;
 import me.pr3.atypical.compiler.util.TypeUtil;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
@@ -32,19 +35,13 @@ public class StatementCompiler {
         insnList.add(startLabel);
         ExpressionCompiler compiler = new ExpressionCompiler(structureCompiler, methodCompiler);
         if (context.localVariableDeclarationExpression() != null) {
-            LocalVariableDeclarationExpressionContext lvde = context.localVariableDeclarationExpression();
-            String localVarType = TypeUtil.toDesc(lvde.typeName().getText(), structureCompiler.imports.get(methodCompiler.fileName));
-            Result expressionResult = compiler.compileExpression(lvde.expression());
-            insnList.add(expressionResult.insnList());
-            int localVarIndex = methodCompiler.addLocalVar(Type.fromDescriptor(localVarType), lvde.variableName().getText());
-            insnList.add(new VarInsnNode(getStoreInstruction(expressionResult.returnType()), localVarIndex));
+            insnList.add(compileLocalVariableDeclaration(context.localVariableDeclarationExpression()));
         }
         if (context.asignLocalVariableStatement() != null) {
-            AsignLocalVariableStatementContext alvs = context.asignLocalVariableStatement();
-            int localVarIndex = methodCompiler.getLocalVarIndexByName(alvs.variableName().getText());
-            Result expressionResult = compiler.compileExpression(alvs.expression());
-            insnList.add(expressionResult.insnList());
-            insnList.add(new VarInsnNode(getStoreInstruction(expressionResult.returnType()), localVarIndex));
+            insnList.add(compileLocalVariableAssignment(context.asignLocalVariableStatement()));
+        }
+        if (context.incrementStatement() != null) {
+            insnList.add(compileIncrementStatement(context.incrementStatement()));
         }
         if (context.expression() != null) {
             ExpressionContext expression = context.expression();
@@ -55,11 +52,14 @@ public class StatementCompiler {
             ReturnStatementContext returnStatement = context.returnStatement();
             if (returnStatement.expression() != null) {
                 Result expressionResult = compiler.compileExpression(returnStatement.expression());
-                if(expressionResult.returnType().getKind() != Descriptor.fromString(methodCompiler.methodNode.desc).getReturnType().getKind()){
+                Type returnType = Descriptor.fromString(methodCompiler.methodNode.desc).getReturnType();
+                if(expressionResult.returnType().getKind() != returnType.getKind()
+                        && !(NumericUtil.isNumeric(expressionResult.returnType()) && NumericUtil.isNumeric(returnType))){
                     throw new IllegalArgumentException("Return Type Mismatch");
                 }
                 insnList.add(expressionResult.insnList());
-                insnList.add(new InsnNode(getReturnInstructionForType(expressionResult.returnType())));
+                insnList.add(compiler.convertForAssignment(expressionResult.returnType(), returnType, returnStatement.expression()));
+                insnList.add(new InsnNode(returnType.getOpcode(Opcodes.IRETURN)));
             } else {
                 if(Descriptor.fromString(methodCompiler.methodNode.desc).getReturnType().getKind() != Type.Kind.VOID){
                     throw new IllegalArgumentException("Return Type Mismatch");
@@ -75,22 +75,73 @@ public class StatementCompiler {
             WhileStatementCompiler whileStatementCompiler = new WhileStatementCompiler(this);
             insnList.add(whileStatementCompiler.compileWhileStatement(context.whileStatement()));
         }
+        if(context.forStatement() != null){
+            ForStatementCompiler forStatementCompiler = new ForStatementCompiler(this);
+            insnList.add(forStatementCompiler.compileForStatement(context.forStatement()));
+        }
         insnList.add(new LineNumberNode(startLineNumber, startLabel));
         return insnList;
     }
 
-    private int getReturnInstructionForType(Type returnType) {
-        return switch (returnType.getKind()) {
-            case Type.Kind.INT, Type.Kind.BOOLEAN -> Opcodes.IRETURN;
-            case Type.Kind.VOID -> Opcodes.RETURN;
-            default -> Opcodes.ARETURN;
-        };
+    public InsnList compileLocalVariableDeclaration(LocalVariableDeclarationExpressionContext lvde) {
+        InsnList insnList = new InsnList();
+        ExpressionCompiler compiler = new ExpressionCompiler(structureCompiler, methodCompiler);
+        String localVarType = TypeUtil.toDesc(lvde.typeName().getText(), structureCompiler.imports.get(methodCompiler.fileName));
+        structureCompiler.recordDescriptorReferences(methodCompiler.fileName, localVarType);
+        Result expressionResult = compiler.compileExpression(lvde.expression());
+        insnList.add(expressionResult.insnList());
+        insnList.add(compiler.convertForAssignment(expressionResult.returnType(), Type.fromDescriptor(localVarType), lvde.expression()));
+        int localVarIndex = methodCompiler.addLocalVar(Type.fromDescriptor(localVarType), lvde.variableName().getText());
+        insnList.add(new VarInsnNode(Type.fromDescriptor(localVarType).getOpcode(Opcodes.ISTORE), localVarIndex));
+        if (methodCompiler.singleAssignmentLocals.contains(lvde.variableName().getText())) {
+            ConstantEvaluator.Constant constant = methodCompiler.getConstantEvaluator().evaluate(lvde.expression());
+            //The local is still stored, so it shows up in a debugger, but loads of it are replaced by the value
+            if (constant != null && constant.type().equals(Type.fromDescriptor(localVarType))) {
+                methodCompiler.localConstants.put(localVarIndex, constant);
+            }
+        }
+        return insnList;
     }
 
-    private int getStoreInstruction(Type varType){
-        return switch (varType.getKind()){
-            case Type.Kind.INT, Type.Kind.BOOLEAN -> Opcodes.ISTORE;
-            default -> Opcodes.ASTORE;
-        };
+    public InsnList compileLocalVariableAssignment(AsignLocalVariableStatementContext alvs) {
+        InsnList insnList = new InsnList();
+        ExpressionCompiler compiler = new ExpressionCompiler(structureCompiler, methodCompiler);
+        int localVarIndex = methodCompiler.getLocalVarIndexByName(alvs.variableName().getText());
+        Type localVarType = methodCompiler.getLocalVarTypeByName(alvs.variableName().getText());
+        Result expressionResult = compiler.compileExpression(alvs.expression());
+        insnList.add(expressionResult.insnList());
+        insnList.add(compiler.convertForAssignment(expressionResult.returnType(), localVarType, alvs.expression()));
+        insnList.add(new VarInsnNode(localVarType.getOpcode(Opcodes.ISTORE), localVarIndex));
+        return insnList;
+    }
+
+    public InsnList compileIncrementStatement(IncrementStatementContext context) {
+        String name = context.variableName().getText();
+        if (!methodCompiler.containsLocalVarWithName(name)) {
+            throw new IllegalArgumentException("Unknown local variable: " + name);
+        }
+        return compileIncrement(methodCompiler.getLocalVarTypeByName(name), methodCompiler.getLocalVarIndexByName(name), context.INC() != null ? 1 : -1);
+    }
+
+    /**
+     * Adds delta to a numeric local, ints with a single IINC. byte, short and char wrap around like in Java.
+     */
+    public InsnList compileIncrement(Type type, int index, int delta) {
+        InsnList insnList = new InsnList();
+        if (type.getKind() == Type.Kind.INT) {
+            insnList.add(new IincInsnNode(index, delta));
+            return insnList;
+        }
+        if (!NumericUtil.isNumeric(type)) {
+            throw new IllegalArgumentException("Cannot increment a local of type " + type);
+        }
+        Type computedType = NumericUtil.promote(type, Type.INT);
+        insnList.add(new VarInsnNode(type.getOpcode(Opcodes.ILOAD), index));
+        insnList.add(OpcodeUtil.pushInt(delta));
+        insnList.add(NumericUtil.convert(Type.INT, computedType));
+        insnList.add(new InsnNode(computedType.getOpcode(Opcodes.IADD)));
+        insnList.add(NumericUtil.convert(computedType, type));
+        insnList.add(new VarInsnNode(type.getOpcode(Opcodes.ISTORE), index));
+        return insnList;
     }
 }
@@ -1,7 +1,7 @@
 package me.pr3.atypical.compiler.statement;
 
+import me.pr3.atypical.compiler.expression.ConditionCompiler;
 import me.pr3.atypical.compiler.expression.ExpressionCompiler;
-import me.pr3.atypical.compiler.typing.Type;
 import me.pr3.atypical.generated.AtypicalParser;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.InsnList;
@@ -25,11 +25,8 @@ public class WhileStatementCompiler {
         LabelNode startOfLoop = new LabelNode();
         LabelNode endOfLoop = new LabelNode();
         insnList.add(startOfLoop);
-        ExpressionCompiler.Result expressionResult = expressionCompiler.compileExpression(expressionContext);
-        if (expressionResult.returnType().getKind() != Type.Kind.BOOLEAN)
-            throw new IllegalStateException("While statement expression did not evaluate to boolean");
-        insnList.add(expressionResult.insnList());
-        insnList.add(new JumpInsnNode(Opcodes.IFEQ, endOfLoop));
+        ConditionCompiler conditionCompiler = new ConditionCompiler(expressionCompiler);
+        insnList.add(conditionCompiler.compileJump(expressionContext, endOfLoop, false));
         for (AtypicalParser.StatementContext statementContext : statementContexts) {
             insnList.add(statementCompiler.compileStatement(statementContext));
         }
@@ -134,6 +134,15 @@ public class Type {
         }
     }
 
+    /**
+     * Returns the variant of an int instruction for this type, e.g. DLOAD for ILOAD on double or AASTORE for
+     * IASTORE on references. Unknown types (null) are handled as references.
+     */
+    public int getOpcode(int intOpcode) {
+        String jvmDesc = kind == Kind.UNKNOWN || isStaticType() ? "Ljava/lang/Object;" : desc;
+        return org.objectweb.asm.Type.getType(jvmDesc).getOpcode(intOpcode);
+    }
+
     /**
      * Infers the Kind enum from the descriptor string.
      */
@@ -0,0 +1,80 @@
+package me.pr3.atypical.compiler.util;
+
+import me.pr3.atypical.compiler.typing.Descriptor;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+
+/**
+ * Hash index of the methods and fields of a ClassNode. Methods are grouped by name into their overloads with
+ * the descriptors already parsed, so resolving a call does not have to scan and re-parse every method of the class.
+ * Indices are built once per ClassNode and rebuilt if members were added to the ClassNode since.
+ *
+ * @author tim
+ */
+public class ClassMemberIndex {
+
+    private static final Map<ClassNode, ClassMemberIndex> INDICES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final int methodCount;
+    private final int fieldCount;
+    private final Map<String, List<IndexedMethod>> methodsByName = new HashMap<>();
+    private final Map<String, FieldNode> fieldsByName = new HashMap<>();
+
+    private ClassMemberIndex(ClassNode classNode) {
+        this.methodCount = size(classNode.methods);
+        this.fieldCount = size(classNode.fields);
+        if (classNode.methods != null) {
+            for (MethodNode method : classNode.methods) {
+                methodsByName.computeIfAbsent(method.name, name -> new ArrayList<>())
+                        .add(new IndexedMethod(method, Descriptor.fromString(method.desc)));
+            }
+        }
+        if (classNode.fields != null) {
+            for (FieldNode field : classNode.fields) {
+                fieldsByName.putIfAbsent(field.name, field);
+            }
+        }
+    }
+
+    public static ClassMemberIndex of(ClassNode classNode) {
+        ClassMemberIndex index = INDICES.get(classNode);
+        if (index == null || index.isStale(classNode)) {
+            index = new ClassMemberIndex(classNode);
+            INDICES.put(classNode, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return all overloads of the method with the given name, in declaration order
+     */
+    public List<IndexedMethod> getMethods(String name) {
+        return methodsByName.getOrDefault(name, List.of());
+    }
+
+    public MethodNode getMethod(String name, String desc) {
+        for (IndexedMethod method : getMethods(name)) {
+            if (method.methodNode().desc.equals(desc)) return method.methodNode();
+        }
+        return null;
+    }
+
+    public FieldNode getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+    private boolean isStale(ClassNode classNode) {
+        return methodCount != size(classNode.methods) || fieldCount != size(classNode.fields);
+    }
+
+    private static int size(List<?> members) {
+        return members == null ? 0 : members.size();
+    }
+
+    public record IndexedMethod(MethodNode methodNode, Descriptor descriptor) {
+
+    }
+}
@@ -0,0 +1,131 @@
+package me.pr3.atypical.compiler.util;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe cache of the class metadata of library classes, looked up by internal name.
+ * Only signatures are needed by the compiler, so method bodies, debug info and frames are skipped while
+ * parsing. Lookups of classes that do not exist are cached as well. The repository can be shared between
+ * {@link me.pr3.atypical.compiler.StructureCompiler} instances, the ClassNodes it returns must not be modified.
+ * Classes that are not found are looked up in the parent repository if there is one.
+ *
+ * @author tim
+ */
+public class ClassRepository {
+
+    private static final ClassRepository SHARED = new ClassRepository(ClassLoader.getSystemClassLoader());
+
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private final ClassFileSource source;
+    private final ClassRepository parent;
+    private final ConcurrentMap<String, Optional<ClassNode>> classNodes = new ConcurrentHashMap<>();
+
+    public ClassRepository(ClassLoader classLoader) {
+        this(ClassFileSource.of(classLoader), null);
+    }
+
+    public ClassRepository(ClassFileSource source, ClassRepository parent) {
+        this.source = source;
+        this.parent = parent;
+    }
+
+    /**
+     * @return the repository backed by the system class loader
+     */
+    public static ClassRepository shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the ClassNode for the given internal name or null if there is no such class
+     */
+    public ClassNode getClassNode(String internalName) {
+        ClassNode classNode = classNodes.computeIfAbsent(internalName, this::loadClassNode).orElse(null);
+        if (classNode == null && parent != null) {
+            return parent.getClassNode(internalName);
+        }
+        return classNode;
+    }
+
+    public boolean containsClass(String internalName) {
+        return getClassNode(internalName) != null;
+    }
+
+    public int size() {
+        return classNodes.size();
+    }
+
+    public void clear() {
+        classNodes.clear();
+    }
+
+    private Optional<ClassNode> loadClassNode(String internalName) {
+        byte[] classBytes;
+        try {
+            classBytes = source.getClassBytes(internalName);
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        if (classBytes == null) return Optional.empty();
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classBytes).accept(classNode, PARSING_OPTIONS);
+        return Optional.of(classNode);
+    }
+
+    /**
+     * Provides the class files of a repository by internal name.
+     */
+    public interface ClassFileSource {
+
+        /**
+         * @return the class file of the given class or null if there is no such class
+         */
+        byte[] getClassBytes(String internalName) throws IOException;
+
+        default boolean containsClass(String internalName) {
+            try {
+                return getClassBytes(internalName) != null;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        static ClassFileSource of(ClassLoader classLoader) {
+            return internalName -> {
+                // Convert the class name to a resource path
+                String resourcePath = internalName.replace('.', '/') + ".class";
+                try (InputStream inputStream = classLoader.getResourceAsStream(resourcePath)) {
+                    return inputStream == null ? null : inputStream.readAllBytes();
+                }
+            };
+        }
+
+        /**
+         * Class files laid out by internal name below the given directory, e.g. the output directory of a previous build.
+         */
+        static ClassFileSource ofDirectory(Path directory) {
+            return new ClassFileSource() {
+                @Override
+                public byte[] getClassBytes(String internalName) throws IOException {
+                    Path path = directory.resolve(internalName + ".class");
+                    return Files.isRegularFile(path) ? Files.readAllBytes(path) : null;
+                }
+
+                @Override
+                public boolean containsClass(String internalName) {
+                    return Files.isRegularFile(directory.resolve(internalName + ".class"));
+                }
+            };
+        }
+    }
+}
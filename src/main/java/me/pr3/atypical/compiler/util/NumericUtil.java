@@ -0,0 +1,83 @@
+package me.pr3.atypical.compiler.util;
+
+import me.pr3.atypical.compiler.typing.Type;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+
+/**
+ * Numeric promotion and conversion between the primitive types. byte, short and char are computed as int like
+ * on the JVM, mixing types converts both operands to the wider one of int, long, float and double.
+ *
+ * @author tim
+ */
+public class NumericUtil {
+
+    //In the order of the I2L ... D2F conversion opcodes
+    private static final Type[] COMPUTATIONAL_TYPES = {Type.INT, Type.LONG, Type.FLOAT, Type.DOUBLE};
+
+    public static boolean isNumeric(Type type) {
+        return switch (type.getKind()) {
+            case INT, LONG, FLOAT, DOUBLE, BYTE, SHORT, CHAR -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return the type both operands of a binary operator are converted to, null if one of them is not numeric
+     */
+    public static Type promote(Type lhs, Type rhs) {
+        if (!isNumeric(lhs) || !isNumeric(rhs)) return null;
+        return COMPUTATIONAL_TYPES[Math.max(getRank(lhs), getRank(rhs))];
+    }
+
+    /**
+     * @return whether a value of the type can be assigned to the other type without an explicit cast
+     */
+    public static boolean isWidening(Type from, Type to) {
+        if (!isNumeric(from) || !isNumeric(to)) return false;
+        if (from.equals(to)) return true;
+        return switch (to.getKind()) {
+            case SHORT -> from.getKind() == Type.Kind.BYTE;
+            case INT -> from.getKind() != Type.Kind.LONG && from.getKind() != Type.Kind.FLOAT && from.getKind() != Type.Kind.DOUBLE;
+            case LONG, FLOAT, DOUBLE -> getRank(from) < getRank(to);
+            default -> false;
+        };
+    }
+
+    /**
+     * @return the instructions converting the value on top of the stack, nothing if both types are computed the same
+     */
+    public static InsnList convert(Type from, Type to) {
+        if (!isNumeric(from) || !isNumeric(to)) {
+            throw new IllegalArgumentException("Cannot convert " + from + " to " + to);
+        }
+        InsnList insnList = new InsnList();
+        int fromRank = getRank(from);
+        int toRank = getRank(to);
+        if (fromRank != toRank) {
+            //I2L, I2F, I2D, L2I, L2F, L2D, F2I, ...: three conversions per source type, skipping the type itself
+            insnList.add(new InsnNode(Opcodes.I2L + 3 * fromRank + (toRank < fromRank ? toRank : toRank - 1)));
+        }
+        if (from.equals(to)) return insnList;
+        switch (to.getKind()) {
+            case BYTE -> insnList.add(new InsnNode(Opcodes.I2B));
+            case CHAR -> insnList.add(new InsnNode(Opcodes.I2C));
+            case SHORT -> {
+                if (from.getKind() != Type.Kind.BYTE) insnList.add(new InsnNode(Opcodes.I2S));
+            }
+            default -> {
+            }
+        }
+        return insnList;
+    }
+
+    private static int getRank(Type type) {
+        return switch (type.getKind()) {
+            case LONG -> 1;
+            case FLOAT -> 2;
+            case DOUBLE -> 3;
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,86 @@
+package me.pr3.atypical.compiler.util;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+
+/**
+ * @author tim
+ */
+public class OpcodeUtil {
+
+    /**
+     * @return the shortest instruction pushing the int value, ICONST_M1 to ICONST_5, BIPUSH, SIPUSH or LDC
+     */
+    public static AbstractInsnNode pushInt(int value) {
+        if (value >= -1 && value <= 5) return new InsnNode(Opcodes.ICONST_0 + value);
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) return new IntInsnNode(Opcodes.BIPUSH, value);
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) return new IntInsnNode(Opcodes.SIPUSH, value);
+        return new LdcInsnNode(value);
+    }
+
+    public static AbstractInsnNode pushLong(long value) {
+        if (value == 0 || value == 1) return new InsnNode(Opcodes.LCONST_0 + (int) value);
+        return new LdcInsnNode(value);
+    }
+
+    public static AbstractInsnNode pushFloat(float value) {
+        //Compared by bits, so -0.0f is not pushed as FCONST_0
+        int bits = Float.floatToIntBits(value);
+        if (bits == Float.floatToIntBits(0f) || bits == Float.floatToIntBits(1f) || bits == Float.floatToIntBits(2f)) {
+            return new InsnNode(Opcodes.FCONST_0 + (int) value);
+        }
+        return new LdcInsnNode(value);
+    }
+
+    public static AbstractInsnNode pushDouble(double value) {
+        long bits = Double.doubleToLongBits(value);
+        if (bits == Double.doubleToLongBits(0d) || bits == Double.doubleToLongBits(1d)) {
+            return new InsnNode(Opcodes.DCONST_0 + (int) value);
+        }
+        return new LdcInsnNode(value);
+    }
+
+    public static boolean isConditionalJump(int opcode) {
+        return (opcode >= Opcodes.IFEQ && opcode <= Opcodes.IF_ACMPNE) || opcode == Opcodes.IFNULL || opcode == Opcodes.IFNONNULL;
+    }
+
+    /**
+     * @return the conditional jump that is taken exactly when the given one is not, e.g. IF_ICMPLT for IF_ICMPGE
+     */
+    public static int invertJump(int opcode) {
+        return switch (opcode) {
+            case Opcodes.IFEQ -> Opcodes.IFNE;
+            case Opcodes.IFNE -> Opcodes.IFEQ;
+            case Opcodes.IFLT -> Opcodes.IFGE;
+            case Opcodes.IFGE -> Opcodes.IFLT;
+            case Opcodes.IFGT -> Opcodes.IFLE;
+            case Opcodes.IFLE -> Opcodes.IFGT;
+            case Opcodes.IF_ICMPEQ -> Opcodes.IF_ICMPNE;
+            case Opcodes.IF_ICMPNE -> Opcodes.IF_ICMPEQ;
+            case Opcodes.IF_ICMPLT -> Opcodes.IF_ICMPGE;
+            case Opcodes.IF_ICMPGE -> Opcodes.IF_ICMPLT;
+            case Opcodes.IF_ICMPGT -> Opcodes.IF_ICMPLE;
+            case Opcodes.IF_ICMPLE -> Opcodes.IF_ICMPGT;
+            case Opcodes.IF_ACMPEQ -> Opcodes.IF_ACMPNE;
+            case Opcodes.IF_ACMPNE -> Opcodes.IF_ACMPEQ;
+            case Opcodes.IFNULL -> Opcodes.IFNONNULL;
+            case Opcodes.IFNONNULL -> Opcodes.IFNULL;
+            default -> throw new IllegalArgumentException("Not a conditional jump: " + opcode);
+        };
+    }
+
+    public static boolean isReturn(int opcode) {
+        return opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN;
+    }
+
+    /**
+     * @return whether execution never continues with the next instruction
+     */
+    public static boolean isUnconditionalExit(int opcode) {
+        return isReturn(opcode) || opcode == Opcodes.GOTO || opcode == Opcodes.ATHROW
+                || opcode == Opcodes.TABLESWITCH || opcode == Opcodes.LOOKUPSWITCH;
+    }
+}
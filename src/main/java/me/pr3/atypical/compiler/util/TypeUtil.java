@@ -78,6 +78,12 @@ public class TypeUtil {
             output.append("[");
         }
         temp = importMapping.getOrDefault(temp, temp);
+        //The innermost array of a columnar struct is its container class (see ColumnarContainerCompiler)
+        String container = output.isEmpty() ? null : importMapping.get(temp + "[]");
+        if (container != null) {
+            output.setLength(output.length() - 1);
+            temp = container;
+        }
         return output.append(mapTypeToJVMType(temp)).toString();
     }
 
@@ -89,6 +95,11 @@ public class TypeUtil {
         return switch (type){
             case "int" -> "I";
             case "long" -> "J";
+            case "double" -> "D";
+            case "float" -> "F";
+            case "byte" -> "B";
+            case "char" -> "C";
+            case "short" -> "S";
             case "obj" -> "Ljava/lang/Object;";
             case "bool" -> "Z";
             default -> "L" + type + ";";
@@ -107,8 +118,7 @@ public class TypeUtil {
         }
         if(context.methodReturnTypeDeclaration() != null){
             String returnType = context.methodReturnTypeDeclaration().typeName().getText();
-            String fullyQualifiedReturnType = importMapping.getOrDefault(returnType, returnType);
-            return "(" + parameterTypes + ")" + mapTypeToJVMType(fullyQualifiedReturnType);
+            return "(" + parameterTypes + ")" + toDesc(returnType, importMapping);
         }else {
             return "(" + parameterTypes + ")V";
         }
@@ -0,0 +1,149 @@
+package me.pr3.atypical.daemon;
+
+import me.pr3.atypical.cli.Build;
+import me.pr3.atypical.cli.BuildRequest;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running compiler process. Keeping the JVM alive keeps the JIT compiled compiler, the ANTLR DFA cache and the
+ * metadata of library classes ({@link me.pr3.atypical.compiler.util.ClassRepository#shared()}) warm between builds.
+ * <p>
+ * Every connection carries one request and one response. A request is the command followed by its arguments, one per
+ * line, and ends with an empty line. The arguments of a build are those of the command line, see
+ * {@link BuildRequest#toArguments()}:
+ * <pre>
+ * build
+ * -d
+ * /abs/out
+ * /abs/A.atp
+ *
+ * </pre>
+ * <code>status</code> and <code>shutdown</code> take no arguments. The response is <code>ok</code> or
+ * <code>error</code> on the first line followed by the message, the daemon closes the connection after it.
+ * Every connection is handled on its own thread, but builds run one after another, so two builds never write to the
+ * same output directory at once. Paths are used as they are, clients have to send absolute paths.
+ *
+ * @author tim
+ */
+public class CompileDaemon {
+
+    private final DaemonAddress address;
+    private final AtomicInteger builds = new AtomicInteger();
+    private final long startTime = System.currentTimeMillis();
+    private volatile ServerSocketChannel server;
+    private volatile boolean stopping = false;
+
+    public CompileDaemon(DaemonAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * The response to a request, the message of an error response describes what went wrong.
+     */
+    public record Response(boolean ok, String message) {
+    }
+
+    public void run() throws IOException {
+        //A socket file left behind by a daemon that was killed would make the bind fail
+        Files.deleteIfExists(address.path());
+        try (ServerSocketChannel server = address.bind()) {
+            this.server = server;
+            System.out.println("Compile daemon listening on " + address.path());
+            while (!stopping) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    //Closed after a shutdown request
+                    break;
+                }
+                //A client that never finishes its request must not block the others
+                Thread.ofVirtual().name("compile-daemon-connection").start(() -> handleConnection(client));
+            }
+        } finally {
+            Files.deleteIfExists(address.path());
+        }
+    }
+
+    private void handleConnection(SocketChannel channel) {
+        try (channel) {
+            Response response;
+            if (!address.isOwner(channel)) {
+                response = new Response(false, "Connections of other users are not accepted");
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+                String line = reader.readLine();
+                //Closed without a request, e.g. a client checking whether the daemon runs, there is no one to answer
+                if (line == null) return;
+                List<String> request = new ArrayList<>();
+                for (; line != null && !line.isEmpty(); line = reader.readLine()) {
+                    request.add(line);
+                }
+                response = handleRequest(request);
+            }
+            writeResponse(channel, response);
+        } catch (IOException e) {
+            //A client that went away must not take the daemon down
+            System.err.println("Daemon connection failed: " + e);
+        }
+        if (stopping) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Closing the daemon socket failed: " + e);
+            }
+        }
+    }
+
+    private static void writeResponse(SocketChannel channel, Response response) {
+        try {
+            Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            writer.write(response.ok() ? "ok\n" : "error\n");
+            writer.write(response.message());
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            //The client closed the connection without waiting for the response (broken pipe), nothing failed here
+        }
+    }
+
+    Response handleRequest(List<String> request) {
+        try {
+            if (request.isEmpty()) throw new IllegalArgumentException("Empty request");
+            String command = request.get(0);
+            List<String> arguments = request.subList(1, request.size());
+            String message = switch (command) {
+                case "build" -> build(BuildRequest.parse(arguments));
+                case "status" -> "Daemon up for " + (System.currentTimeMillis() - startTime) / 1000 + "s, " + builds.get() + " builds";
+                case "shutdown" -> stop();
+                default -> throw new IllegalArgumentException("Unknown command: " + command);
+            };
+            return new Response(true, message);
+        } catch (Exception e) {
+            //The client reports the error, the daemon keeps running
+            return new Response(false, e.toString());
+        }
+    }
+
+    private synchronized String build(BuildRequest request) throws IOException {
+        if (stopping) throw new IllegalStateException("Daemon is stopping");
+        builds.incrementAndGet();
+        return Build.run(request);
+    }
+
+    //Synchronized like build, so a running build is finished before the daemon stops
+    private synchronized String stop() {
+        stopping = true;
+        return "Daemon stopped";
+    }
+}
@@ -0,0 +1,55 @@
+package me.pr3.atypical.daemon;
+
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Where the daemon listens: the path of a Unix-domain socket. The daemon builds whatever a request names and writes
+ * wherever it says, so only the user running it may connect: the socket file is readable and writable by its owner
+ * only, and connections whose peer credentials name another user are rejected.
+ *
+ * @author tim
+ */
+public record DaemonAddress(Path path) {
+
+    public static DaemonAddress parse(String address) {
+        return new DaemonAddress(Path.of(address).toAbsolutePath());
+    }
+
+    public ServerSocketChannel bind() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(path));
+            if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    public SocketChannel connect() throws IOException {
+        return SocketChannel.open(UnixDomainSocketAddress.of(path));
+    }
+
+    /**
+     * @return whether the peer of an accepted connection runs as the owner of the socket file, true if the platform
+     * does not provide the peer credentials
+     */
+    public boolean isOwner(SocketChannel channel) throws IOException {
+        if (!channel.supportedOptions().contains(ExtendedSocketOptions.SO_PEERCRED)) return true;
+        UnixDomainPrincipal peer = channel.getOption(ExtendedSocketOptions.SO_PEERCRED);
+        return peer.user().getName().equals(Files.getOwner(path).getName());
+    }
+}
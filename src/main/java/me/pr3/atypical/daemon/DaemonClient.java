@@ -0,0 +1,41 @@
+package me.pr3.atypical.daemon;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Sends a single request to a running {@link CompileDaemon}.
+ *
+ * @author tim
+ */
+public class DaemonClient {
+
+    /**
+     * @param request the command followed by its arguments
+     */
+    public static CompileDaemon.Response send(DaemonAddress address, List<String> request) throws IOException {
+        for (String line : request) {
+            if (line.isEmpty() || line.indexOf('\n') >= 0 || line.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("Daemon request lines cannot be empty or contain line breaks: " + line);
+            }
+        }
+        try (SocketChannel channel = address.connect()) {
+            Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            for (String line : request) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.write('\n');
+            writer.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String status = reader.readLine();
+            if (status == null) throw new IOException("Daemon closed the connection without a response");
+            if (!status.equals("ok") && !status.equals("error")) throw new IOException("Invalid daemon response: " + status);
+            return new CompileDaemon.Response(status.equals("ok"), reader.lines().collect(Collectors.joining("\n")));
+        }
+    }
+}
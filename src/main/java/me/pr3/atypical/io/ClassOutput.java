@@ -0,0 +1,37 @@
+package me.pr3.atypical.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Destination of the classes of a build.
+ *
+ * @author tim
+ */
+public interface ClassOutput extends AutoCloseable {
+
+    void write(String internalName, byte[] classFile) throws IOException;
+
+    /**
+     * Removes a class written by an earlier build.
+     */
+    void delete(String internalName) throws IOException;
+
+    /**
+     * Finishes all pending writes, the classes are only guaranteed to be complete once this returns.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * @return a jar output if the path ends with .jar, a directory output otherwise
+     */
+    static ClassOutput open(Path path) throws IOException {
+        if (isJar(path)) return new JarClassOutput(path);
+        return new DirectoryClassOutput(path);
+    }
+
+    static boolean isJar(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().endsWith(".jar");
+    }
+}
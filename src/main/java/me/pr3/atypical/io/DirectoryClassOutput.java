@@ -0,0 +1,97 @@
+package me.pr3.atypical.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes classes into a directory by internal name. The file system calls are made by a single writer thread that
+ * works through a bounded queue, so the compiler does not wait on the disk, and each package directory is only
+ * created once. Every class is written with one call that creates or truncates the file.
+ *
+ * @author tim
+ */
+public class DirectoryClassOutput implements ClassOutput {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final Task END = new Task(null, null);
+
+    private final Path directory;
+    private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Set<Path> createdDirectories = new HashSet<>();
+    private final Thread writer;
+    private volatile IOException failure;
+
+    //classFile is null for a delete
+    private record Task(String internalName, byte[] classFile) {
+
+    }
+
+    public DirectoryClassOutput(Path directory) {
+        this.directory = directory;
+        this.writer = Thread.ofPlatform().name("atypical-class-writer").daemon().start(this::writeAll);
+    }
+
+    @Override
+    public void write(String internalName, byte[] classFile) throws IOException {
+        enqueue(new Task(internalName, classFile));
+    }
+
+    @Override
+    public void delete(String internalName) throws IOException {
+        enqueue(new Task(internalName, null));
+    }
+
+    @Override
+    public void close() throws IOException {
+        enqueue(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing classes to " + directory);
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void enqueue(Task task) throws IOException {
+        if (failure != null) throw failure;
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing classes to " + directory);
+        }
+    }
+
+    private void writeAll() {
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == END) return;
+            //After the first failure the remaining tasks are only drained, the failure is reported on close
+            if (failure != null) continue;
+            try {
+                Path path = directory.resolve(task.internalName() + ".class");
+                if (task.classFile() == null) {
+                    Files.deleteIfExists(path);
+                } else {
+                    Path parent = path.getParent();
+                    if (createdDirectories.add(parent)) Files.createDirectories(parent);
+                    Files.write(path, task.classFile());
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package me.pr3.atypical.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Streams all classes into a single jar. Entries get a fixed timestamp, so the same classes written in the same order
+ * give the same jar. The jar is written next to the target and only moved into place on close.
+ *
+ * @author tim
+ */
+public class JarClassOutput implements ClassOutput {
+
+    //1980-02-01, the earliest date a zip entry can hold without an extended timestamp
+    private static final long ENTRY_TIME = 315_532_800_000L + 31L * 24 * 60 * 60 * 1000;
+
+    private final Path jarFile;
+    private final Path tempFile;
+    private final JarOutputStream out;
+
+    public JarClassOutput(Path jarFile) throws IOException {
+        this.jarFile = jarFile;
+        Path parent = jarFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        this.tempFile = Files.createTempFile(parent, jarFile.getFileName().toString(), ".tmp");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Created-By"), "Atypical");
+        this.out = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16));
+        JarEntry manifestEntry = new JarEntry("META-INF/MANIFEST.MF");
+        manifestEntry.setTime(ENTRY_TIME);
+        out.putNextEntry(manifestEntry);
+        manifest.write(out);
+        out.closeEntry();
+    }
+
+    @Override
+    public void write(String internalName, byte[] classFile) throws IOException {
+        JarEntry entry = new JarEntry(internalName + ".class");
+        entry.setTime(ENTRY_TIME);
+        out.putNextEntry(entry);
+        out.write(classFile);
+        out.closeEntry();
+    }
+
+    @Override
+    public void delete(String internalName) {
+        //Every build writes a new jar, classes that are not written again are gone anyway
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        Files.move(tempFile, jarFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,86 @@
+package me.pr3.atypical.io;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Finds and reads the input files of a build.
+ *
+ * @author tim
+ */
+public class SourceFiles {
+
+    public static final String EXTENSION = ".atp";
+
+    /**
+     * Expands the given inputs into source files: a directory stands for all .atp files below it, a path containing
+     * glob characters (<code>* ? [ {</code>) for all files matching it, e.g. <code>src/**&#47;*.atp</code>.
+     * The result is sorted within each input and free of duplicates.
+     */
+    public static List<Path> expand(List<Path> inputs) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (Path input : inputs) {
+            String pattern = input.toString();
+            if (isGlob(pattern)) {
+                files.addAll(findMatching(pattern));
+            } else if (Files.isDirectory(input)) {
+                try (Stream<Path> paths = Files.walk(input)) {
+                    paths.filter(path -> path.toString().endsWith(EXTENSION) && Files.isRegularFile(path))
+                            .sorted()
+                            .forEach(files::add);
+                }
+            } else {
+                files.add(input);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Reads a UTF-8 source file through a memory mapped buffer. The decoded chars are array backed, so they can be
+     * handed to the lexer without another copy (see {@link me.pr3.atypical.compiler.FileParser#toCharStream}).
+     */
+    public static CharBuffer read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(bytes);
+        }
+    }
+
+    private static boolean isGlob(String pattern) {
+        for (char c : new char[]{'*', '?', '[', '{'}) {
+            if (pattern.indexOf(c) >= 0) return true;
+        }
+        return false;
+    }
+
+    private static List<Path> findMatching(String pattern) throws IOException {
+        //Walk from the longest directory prefix without glob characters
+        Path prefix = Path.of(pattern).isAbsolute() ? Path.of(pattern).getRoot() : Path.of("");
+        for (Path element : Path.of(pattern)) {
+            if (isGlob(element.toString())) break;
+            prefix = prefix.resolve(element);
+        }
+        //Files.walk(".") gives ./a.atp, which a relative pattern like *.atp would not match
+        boolean relative = prefix.toString().isEmpty();
+        Path walkRoot = relative ? Path.of(".") : prefix;
+        if (!Files.isDirectory(walkRoot)) return List.of();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        try (Stream<Path> paths = Files.walk(walkRoot)) {
+            return paths.map(path -> relative ? walkRoot.relativize(path) : path)
+                    .filter(path -> matcher.matches(path) && Files.isRegularFile(path))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
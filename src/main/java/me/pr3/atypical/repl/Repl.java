@@ -0,0 +1,98 @@
+package me.pr3.atypical.repl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/**
+ * Line based front end of a {@link ReplSession}. An input ends with a line after which all braces are closed,
+ * lines starting with / are commands.
+ *
+ * @author tim
+ */
+public class Repl {
+
+    private final BufferedReader in;
+    private final PrintStream out;
+    private ReplSession session;
+
+    public Repl(BufferedReader in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+        this.session = new ReplSession(out);
+    }
+
+    public static void main(String[] args) throws IOException {
+        new Repl(new BufferedReader(new InputStreamReader(System.in)), System.out).run();
+    }
+
+    public void run() throws IOException {
+        out.println("Atypical REPL, /help for commands");
+        StringBuilder input = new StringBuilder();
+        while (true) {
+            out.print(input.isEmpty() ? "atp> " : "...> ");
+            out.flush();
+            String line = in.readLine();
+            if (line == null) return;
+            if (input.isEmpty() && line.startsWith("/")) {
+                if (!runCommand(line.trim())) return;
+                continue;
+            }
+            input.append(line).append('\n');
+            if (getOpenBraces(input) > 0) continue;
+            try {
+                session.eval(input.toString());
+            } catch (Throwable e) {
+                out.println("| " + e);
+            }
+            input.setLength(0);
+        }
+    }
+
+    /**
+     * @return false if the REPL should exit
+     */
+    private boolean runCommand(String command) {
+        switch (command) {
+            case "/exit" -> {
+                return false;
+            }
+            case "/vars" -> session.getVariables().forEach((name, variable) ->
+                    out.println("| " + variable.typeName() + ": " + name + " = " + variable.value()));
+            case "/decls" -> session.getDeclarations().forEach(name -> out.println("| " + name));
+            case "/imports" -> session.getImports().forEach((alias, importedClass) ->
+                    out.println("| import " + importedClass + " as " + alias + ";"));
+            case "/reset" -> {
+                session = new ReplSession(out);
+                out.println("| reset");
+            }
+            default -> out.println("""
+                    | /vars      list the variables
+                    | /decls     list the declarations, global methods are called as Repl.name()
+                    | /imports   list the imports
+                    | /reset     start a new session
+                    | /exit      leave the REPL""");
+        }
+        return true;
+    }
+
+    //Braces in string literals do not count
+    private static int getOpenBraces(CharSequence input) {
+        int open = 0;
+        char quote = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (quote != 0) {
+                if (c == quote || c == '\n') quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '{') {
+                open++;
+            } else if (c == '}') {
+                open--;
+            }
+        }
+        return open;
+    }
+}
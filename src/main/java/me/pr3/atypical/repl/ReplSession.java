@@ -0,0 +1,337 @@
+package me.pr3.atypical.repl;
+
+import me.pr3.atypical.compiler.ColumnarContainerCompiler;
+import me.pr3.atypical.compiler.CompilerOptions;
+import me.pr3.atypical.compiler.FileParser;
+import me.pr3.atypical.compiler.incremental.BuildState;
+import me.pr3.atypical.compiler.incremental.IncrementalCompiler;
+import me.pr3.atypical.compiler.util.TypeUtil;
+import me.pr3.atypical.run.InMemoryClassLoader;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+import static me.pr3.atypical.generated.AtypicalParser.*;
+
+/**
+ * State of an interactive session. Every declaration (module, struct, trait, impl) is kept as its own in-memory
+ * source file and all global methods share the file Repl.atp, so they are called as <code>Repl.name()</code>.
+ * Declarations are compiled with the {@link IncrementalCompiler}, so redefining a declaration only compiles it and
+ * the declarations that depend on it again. The classes of every such build are defined by a new
+ * {@link InMemoryClassLoader} on top of the previous one.
+ * <p>
+ * Statements are compiled into a <code>run</code> method of their own class, which gets the session variables as
+ * parameters. The method is rewritten to return the values of these and of the variables the statements declare,
+ * so variables live on between inputs. An input that is neither declarations nor statements is evaluated as an
+ * expression and printed.
+ *
+ * @author tim
+ */
+public class ReplSession {
+
+    private static final String GLOBAL_METHODS_FILE = "Repl.atp";
+    private static final String SNIPPET_PREFIX = "ReplSnippet";
+
+    private final PrintStream out;
+    private final IncrementalCompiler compiler = new IncrementalCompiler(new CompilerOptions());
+
+    //Alias -> imported class
+    private final Map<String, String> imports = new LinkedHashMap<>();
+    //File -> declaration
+    private final Map<String, String> declarations = new LinkedHashMap<>();
+    //Method name -> global method
+    private final Map<String, String> globalMethods = new LinkedHashMap<>();
+    private final Map<String, Variable> variables = new LinkedHashMap<>();
+
+    private BuildState state = new BuildState();
+    private final Map<String, byte[]> classes = new HashMap<>();
+    private ClassLoader classLoader = ReplSession.class.getClassLoader();
+    private int snippetCount = 0;
+
+    /**
+     * @param typeName the type as written in the declaration
+     */
+    public record Variable(String typeName, Object value) {
+
+    }
+
+    public ReplSession(PrintStream out) {
+        this.out = out;
+        imports.put("String", "java.lang.String");
+        imports.put("System", "java.lang.System");
+    }
+
+    public Map<String, Variable> getVariables() {
+        return Collections.unmodifiableMap(variables);
+    }
+
+    public Map<String, String> getImports() {
+        return Collections.unmodifiableMap(imports);
+    }
+
+    public Set<String> getDeclarations() {
+        Set<String> names = new LinkedHashSet<>();
+        declarations.keySet().forEach(file -> names.add(file.replace(".atp", "")));
+        globalMethods.keySet().forEach(method -> names.add("Repl." + method));
+        return names;
+    }
+
+    /**
+     * Evaluates one complete input.
+     *
+     * @throws IllegalArgumentException if the input is not valid Atypical
+     * @throws Throwable                anything thrown by the evaluated code
+     */
+    public void eval(String input) throws Throwable {
+        if (input.isBlank()) return;
+        FileContext file = FileParser.parseOrNull("input", input);
+        if (file != null && (!file.fileMember().isEmpty() || !file.imports().importedClass().isEmpty())) {
+            declare(input, file);
+            return;
+        }
+        String statements = "run() {\n" + input + "\n}\n";
+        FileContext statementFile = FileParser.parseOrNull("input", statements);
+        if (statementFile != null) {
+            run(compileSnippet(input, statementFile.fileMember(0).methodImplementation().statement()));
+            return;
+        }
+        String print = "System.out.println(" + input + ");";
+        FileContext printFile = FileParser.parseOrNull("input", "run() {\n" + print + "\n}\n");
+        if (printFile == null) throw new IllegalArgumentException("Not a declaration, statement or expression: " + input);
+        Snippet snippet;
+        try {
+            snippet = compileSnippet(print, List.of());
+        } catch (RuntimeException notPrintable) {
+            //e.g. a call of a void method, which println cannot take
+            snippet = compileSnippet(input + ";", List.of());
+        }
+        run(snippet);
+    }
+
+    private void declare(String input, FileContext file) {
+        Map<String, String> newImports = new LinkedHashMap<>(imports);
+        for (ImportedClassContext importedClass : file.imports().importedClass()) {
+            newImports.put(importedClass.alias.getText(), importedClass.class_.getText());
+        }
+        Map<String, String> newDeclarations = new LinkedHashMap<>(declarations);
+        Map<String, String> newGlobalMethods = new LinkedHashMap<>(globalMethods);
+        List<String> defined = new ArrayList<>();
+        for (FileMemberContext member : file.fileMember()) {
+            String text = getText(input, member);
+            if (member.methodImplementation() != null) {
+                String name = member.methodImplementation().methodSignature().memberName().getText();
+                newGlobalMethods.put(name, text);
+                defined.add("Repl." + name);
+                continue;
+            }
+            String name;
+            if (member.moduleDeclaration() != null) name = member.moduleDeclaration().typeName().getText();
+            else if (member.structDeclaration() != null) name = member.structDeclaration().typeName().getText();
+            else if (member.traitDeclaration() != null) name = member.traitDeclaration().typeName().getText();
+            else name = member.implDeclaration().itf.getText() + "$" + member.implDeclaration().struct.getText();
+            newDeclarations.put(name + ".atp", text);
+            defined.add(name);
+        }
+
+        //Only take over the new declarations if they compile
+        IncrementalCompiler.Result result = compiler.compile(getSources(newImports, newDeclarations, newGlobalMethods),
+                state, classes::get);
+        imports.clear();
+        imports.putAll(newImports);
+        declarations.clear();
+        declarations.putAll(newDeclarations);
+        globalMethods.clear();
+        globalMethods.putAll(newGlobalMethods);
+        state = result.state();
+        classes.putAll(result.classes());
+        classes.keySet().removeAll(result.deletedClasses());
+        if (!result.classes().isEmpty() || !result.deletedClasses().isEmpty()) {
+            classLoader = new InMemoryClassLoader(result.classes(), result.deletedClasses(), classLoader);
+        }
+
+        //Values of redefined types belong to the old classes and cannot be passed to new code
+        Set<String> redefinedTypes = new HashSet<>(result.classes().keySet());
+        redefinedTypes.addAll(result.deletedClasses());
+        for (Iterator<Map.Entry<String, Variable>> iterator = variables.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Variable> variable = iterator.next();
+            String desc = TypeUtil.toDesc(variable.getValue().typeName(), getImportMapping());
+            String typeName = TypeUtil.getUnderlyingTypeOfArray(desc);
+            if (typeName.startsWith("L") && redefinedTypes.contains(typeName.substring(1, typeName.length() - 1))) {
+                out.println("| dropped " + variable.getKey() + " as " + variable.getValue().typeName() + " was redefined");
+                iterator.remove();
+            }
+        }
+        if (!defined.isEmpty()) {
+            out.println("| defined " + String.join(", ", defined) + " (compiled " + result.compiledFiles().size() + " of "
+                    + result.state().files.size() + " declarations)");
+        }
+    }
+
+    /**
+     * @param captured          the variables run returns, in that order
+     * @param declaredVariables the variables declared by the snippet with their types
+     */
+    private record Snippet(String className, byte[] classFile, List<String> captured, Map<String, String> declaredVariables) {
+
+    }
+
+    private Snippet compileSnippet(String body, List<StatementContext> statements) {
+        //Variables declared on the top level of the input outlive it, the ones in nested blocks do not
+        Map<String, String> declaredVariables = new LinkedHashMap<>();
+        for (StatementContext statement : statements) {
+            if (statement.localVariableDeclarationExpression() != null) {
+                LocalVariableDeclarationExpressionContext declaration = statement.localVariableDeclarationExpression();
+                declaredVariables.put(declaration.variableName().getText(), declaration.typeName().getText());
+            }
+        }
+        StringJoiner parameters = new StringJoiner(", ");
+        variables.forEach((name, variable) -> parameters.add(variable.typeName() + ": " + name));
+        String className = SNIPPET_PREFIX + ++snippetCount;
+        Map<String, String> sources = getSources(imports, declarations, globalMethods);
+        sources.put(className + ".atp", getImportHeader(imports) + "run(" + parameters + ") {\n" + body + "\n}\n");
+
+        //Only the snippet itself is compiled, its state is not kept
+        IncrementalCompiler.Result result = compiler.compile(sources, state, classes::get);
+        List<String> captured = new ArrayList<>(variables.keySet());
+        for (String name : declaredVariables.keySet()) {
+            if (!captured.contains(name)) captured.add(name);
+        }
+        return new Snippet(className, captureVariables(result.classes().get(className), captured), captured, declaredVariables);
+    }
+
+    private void run(Snippet snippet) throws Throwable {
+        InMemoryClassLoader snippetLoader = new InMemoryClassLoader(Map.of(snippet.className(), snippet.classFile()), classLoader);
+        Class<?> snippetClass = Class.forName(snippet.className(), true, snippetLoader);
+        MethodType type = MethodType.methodType(Object[].class,
+                variables.values().stream().<Class<?>>map(variable -> toClass(variable.typeName(), snippetLoader)).toList());
+        MethodHandle run = MethodHandles.publicLookup().findStatic(snippetClass, "run", type);
+        Object[] values = (Object[]) run.invokeWithArguments(variables.values().stream().map(Variable::value).toList());
+
+        //null if the statements returned early, the variables keep their values then
+        if (values == null) return;
+        List<String> captured = snippet.captured();
+        Map<String, String> declaredVariables = snippet.declaredVariables();
+        for (int i = 0; i < captured.size(); i++) {
+            String name = captured.get(i);
+            String typeName = declaredVariables.getOrDefault(name, variables.containsKey(name) ? variables.get(name).typeName() : null);
+            variables.put(name, new Variable(typeName, values[i]));
+            if (declaredVariables.containsKey(name)) out.println(name + " ==> " + values[i]);
+        }
+    }
+
+    /**
+     * Rewrites <code>run</code> to return the values of the given local variables (boxed, in that order) at its end,
+     * and null from any earlier return as not all of them are assigned there.
+     */
+    private byte[] captureVariables(byte[] classFile, List<String> names) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classFile).accept(classNode, ClassReader.SKIP_FRAMES);
+        MethodNode run = classNode.methods.stream().filter(method -> method.name.equals("run")).findFirst().orElseThrow();
+        AbstractInsnNode lastReturn = null;
+        for (AbstractInsnNode insn : run.instructions) {
+            if (insn.getOpcode() == Opcodes.RETURN) lastReturn = insn;
+        }
+        for (AbstractInsnNode insn : run.instructions.toArray()) {
+            if (insn.getOpcode() != Opcodes.RETURN) continue;
+            InsnList replacement = new InsnList();
+            if (insn == lastReturn) {
+                replacement.add(new LdcInsnNode(names.size()));
+                replacement.add(new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"));
+                for (int i = 0; i < names.size(); i++) {
+                    LocalVariableNode local = getLastLocalVariable(run, names.get(i));
+                    Type type = Type.getType(local.desc);
+                    replacement.add(new InsnNode(Opcodes.DUP));
+                    replacement.add(new LdcInsnNode(i));
+                    replacement.add(new VarInsnNode(type.getOpcode(Opcodes.ILOAD), local.index));
+                    box(type, replacement);
+                    replacement.add(new InsnNode(Opcodes.AASTORE));
+                }
+            } else {
+                replacement.add(new InsnNode(Opcodes.ACONST_NULL));
+            }
+            replacement.add(new InsnNode(Opcodes.ARETURN));
+            run.instructions.insert(insn, replacement);
+            run.instructions.remove(insn);
+        }
+        run.desc = run.desc.substring(0, run.desc.indexOf(')') + 1) + "[Ljava/lang/Object;";
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        classNode.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+
+    private static LocalVariableNode getLastLocalVariable(MethodNode method, String name) {
+        LocalVariableNode result = null;
+        for (LocalVariableNode local : method.localVariables) {
+            if (local.name.equals(name)) result = local;
+        }
+        if (result == null) throw new IllegalStateException("No local variable " + name + " in " + method.name);
+        return result;
+    }
+
+    private static void box(Type type, InsnList insnList) {
+        String boxType = switch (type.getSort()) {
+            case Type.INT -> "java/lang/Integer";
+            case Type.BOOLEAN -> "java/lang/Boolean";
+            case Type.LONG -> "java/lang/Long";
+            case Type.DOUBLE -> "java/lang/Double";
+            case Type.FLOAT -> "java/lang/Float";
+            case Type.BYTE -> "java/lang/Byte";
+            case Type.CHAR -> "java/lang/Character";
+            case Type.SHORT -> "java/lang/Short";
+            default -> null;
+        };
+        if (boxType == null) return;
+        insnList.add(new MethodInsnNode(Opcodes.INVOKESTATIC, boxType, "valueOf", "(" + type.getDescriptor() + ")L" + boxType + ";"));
+    }
+
+    private Class<?> toClass(String typeName, ClassLoader loader) {
+        try {
+            return MethodType.fromMethodDescriptorString("(" + TypeUtil.toDesc(typeName, getImportMapping()) + ")V", loader).parameterType(0);
+        } catch (TypeNotPresentException e) {
+            throw new IllegalStateException("Type of variable is gone: " + typeName, e);
+        }
+    }
+
+    private Map<String, String> getSources(Map<String, String> imports, Map<String, String> declarations, Map<String, String> globalMethods) {
+        String header = getImportHeader(imports);
+        Map<String, String> sources = new LinkedHashMap<>();
+        declarations.forEach((file, declaration) -> sources.put(file, header + declaration + "\n"));
+        if (!globalMethods.isEmpty()) {
+            sources.put(GLOBAL_METHODS_FILE, header + String.join("\n", globalMethods.values()) + "\n");
+        }
+        return sources;
+    }
+
+    private static String getImportHeader(Map<String, String> imports) {
+        StringBuilder header = new StringBuilder();
+        imports.forEach((alias, importedClass) -> header.append("import ").append(importedClass).append(" as ").append(alias).append(";\n"));
+        return header.toString();
+    }
+
+    private Map<String, String> getImportMapping() {
+        Map<String, String> mapping = new HashMap<>();
+        imports.forEach((alias, importedClass) -> mapping.put(alias, importedClass.replace(".", "/")));
+        List<String> columnarStructs = new ArrayList<>();
+        for (BuildState.FileState file : state.files.values()) {
+            for (String declaredType : file.declarations().declaredTypes()) {
+                String columnarStruct = ColumnarContainerCompiler.getStructName(declaredType);
+                if (columnarStruct != null) columnarStructs.add(columnarStruct);
+            }
+        }
+        ColumnarContainerCompiler.addArrayMappings(mapping, columnarStructs);
+        return mapping;
+    }
+
+    private static String getText(String input, ParserRuleContext context) {
+        return input.substring(context.getStart().getStartIndex(), context.getStop().getStopIndex() + 1);
+    }
+}
@@ -0,0 +1,75 @@
+package me.pr3.atypical.run;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Defines compiled classes straight from their bytes, each class only once it is first requested.
+ * The class files are served as resources as well, so code that reads classes through
+ * {@link ClassLoader#getResourceAsStream} (like {@link me.pr3.atypical.compiler.util.ClassRepository}) sees them.
+ * <p>
+ * Classes of the loader itself take precedence over the parent, and removed classes are hidden from the parent.
+ * This allows stacking loaders where each one holds the classes that were compiled again since its parent,
+ * e.g. in the REPL.
+ *
+ * @author tim
+ */
+public class InMemoryClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    //Internal name -> class file
+    private final Map<String, byte[]> classes;
+    //Internal names of classes of the parent that no longer exist
+    private final Set<String> removedClasses;
+
+    public InMemoryClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+        this(classes, Set.of(), parent);
+    }
+
+    public InMemoryClassLoader(Map<String, byte[]> classes, Set<String> removedClasses, ClassLoader parent) {
+        super("atypical", parent);
+        this.classes = Map.copyOf(classes);
+        this.removedClasses = Set.copyOf(removedClasses);
+    }
+
+    public boolean containsClass(String internalName) {
+        return classes.containsKey(internalName);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        String internalName = name.replace('.', '/');
+        if (!classes.containsKey(internalName)) {
+            if (removedClasses.contains(internalName)) throw new ClassNotFoundException(name);
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loadedClass = findLoadedClass(name);
+            if (loadedClass == null) loadedClass = findClass(name);
+            if (resolve) resolveClass(loadedClass);
+            return loadedClass;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] classFile = classes.get(name.replace('.', '/'));
+        if (classFile == null) throw new ClassNotFoundException(name);
+        return defineClass(name, classFile, 0, classFile.length);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        if (name.endsWith(".class")) {
+            byte[] classFile = classes.get(name.substring(0, name.length() - ".class".length()));
+            if (classFile != null) return new ByteArrayInputStream(classFile);
+            if (removedClasses.contains(name.substring(0, name.length() - ".class".length()))) return null;
+        }
+        return super.getResourceAsStream(name);
+    }
+}
@@ -0,0 +1,68 @@
+package me.pr3.atypical.run;
+
+import me.pr3.atypical.compiler.CompilerOptions;
+import me.pr3.atypical.compiler.StructureCompiler;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+
+/**
+ * Runs Atypical programs in the current JVM: the classes are compiled into memory, defined by an
+ * {@link InMemoryClassLoader} and the generated <code>main(String[])</code> is called directly.
+ *
+ * @author tim
+ */
+public class Runner {
+
+    private static final String MAIN_DESC = "([Ljava/lang/String;)V";
+
+    /**
+     * Compiles the sources and runs the main method of the global methods of the first file that declares one.
+     */
+    public static void compileAndRun(Map<String, ? extends CharSequence> sources, String[] args) throws Throwable {
+        Map<String, byte[]> classes = new StructureCompiler(sources, new CompilerOptions()).compile();
+        run(classes, findMainClass(sources, classes), args);
+    }
+
+    public static void run(Map<String, byte[]> classes, String mainClass, String[] args) throws Throwable {
+        InMemoryClassLoader classLoader = new InMemoryClassLoader(classes, Runner.class.getClassLoader());
+        MethodHandle main = getMain(Class.forName(mainClass.replace('/', '.'), true, classLoader));
+        Thread thread = Thread.currentThread();
+        ClassLoader previousContextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            main.invokeExact(args);
+        } finally {
+            thread.setContextClassLoader(previousContextClassLoader);
+        }
+    }
+
+    /**
+     * @return the class of the global methods of the first file that has a main(String[]) method
+     */
+    public static String findMainClass(Map<String, ? extends CharSequence> sources, Map<String, byte[]> classes) {
+        for (String fileName : sources.keySet()) {
+            byte[] classFile = classes.get(fileName.replace(".atp", ""));
+            if (classFile == null) continue;
+            ClassNode classNode = new ClassNode();
+            new ClassReader(classFile).accept(classNode, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            for (MethodNode method : classNode.methods) {
+                if (method.name.equals("main") && method.desc.equals(MAIN_DESC) && (method.access & Opcodes.ACC_STATIC) != 0) {
+                    return classNode.name;
+                }
+            }
+        }
+        throw new IllegalArgumentException("None of the files " + sources.keySet() + " declares main(String[]: args)"
+                + " with String imported as java.lang.String");
+    }
+
+    private static MethodHandle getMain(Class<?> mainClass) throws ReflectiveOperationException {
+        return MethodHandles.publicLookup().findStatic(mainClass, "main", MethodType.methodType(void.class, String[].class));
+    }
+}
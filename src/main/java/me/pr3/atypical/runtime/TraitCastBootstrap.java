@@ -0,0 +1,136 @@
+package me.pr3.atypical.runtime;
+
+import java.lang.invoke.*;
+
+/**
+ * Bootstrap for the invokedynamic call sites emitted for trait casts like <code>(Iterator)x</code>.
+ * The impl constructor of <code>Trait$Struct</code> is resolved once per call site and receiver class and cached in
+ * a {@link ClassValue}, the call site itself keeps a small inline cache of class guards in front of those
+ * constructors so monomorphic casts end up as a plain <code>new</code>.
+ * <p>
+ * The impl class is loaded through the class doing the cast, or else through the class of the receiver, as impls
+ * can be defined by a loader below the one of the trait (like in the REPL, which adds a loader per input).
+ *
+ * @author tim
+ */
+public final class TraitCastBootstrap {
+
+    public static final String INTERNAL_NAME = "me/pr3/atypical/runtime/TraitCastBootstrap";
+    public static final String BOOTSTRAP_DESC = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
+
+    //Number of receiver classes a single call site caches before it falls back to the ClassValue lookup
+    private static final int MAX_INLINE_CACHE_DEPTH = 4;
+
+    private static final MethodHandle FALLBACK;
+    private static final MethodHandle MEGAMORPHIC;
+    private static final MethodHandle CLASS_CHECK;
+    private static final MethodHandle CAST_FAILED;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            FALLBACK = lookup.findStatic(TraitCastBootstrap.class, "fallback",
+                    MethodType.methodType(Object.class, InlineCacheCallSite.class, Object.class));
+            MEGAMORPHIC = lookup.findStatic(TraitCastBootstrap.class, "megamorphic",
+                    MethodType.methodType(Object.class, ClassValue.class, Object.class));
+            CLASS_CHECK = lookup.findStatic(TraitCastBootstrap.class, "isExactClass",
+                    MethodType.methodType(boolean.class, Class.class, Object.class));
+            CAST_FAILED = lookup.findStatic(TraitCastBootstrap.class, "castFailed",
+                    MethodType.methodType(Object.class, Class.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private TraitCastBootstrap() {
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type) {
+        if (type.parameterCount() != 1 || type.returnType().isPrimitive()) {
+            throw new IllegalArgumentException("Invalid trait cast call site type: " + type);
+        }
+        return new InlineCacheCallSite(lookup, type.returnType(), type);
+    }
+
+    /**
+     * Returns the impl constructor for casting instances of receiverClass to the given trait in the class of the
+     * caller lookup, adapted to the type (Object)Object.
+     */
+    public static MethodHandle resolveImplConstructor(MethodHandles.Lookup caller, Class<?> trait, Class<?> receiverClass) {
+        MethodType genericType = MethodType.methodType(Object.class, Object.class);
+        //Already an instance of the trait (e.g. an impl class or a trait typed value), nothing to wrap
+        if (trait.isAssignableFrom(receiverClass)) {
+            return MethodHandles.identity(Object.class);
+        }
+        String implClassName = trait.getName() + "$" + receiverClass.getName().replace(".", "_");
+        Class<?> implClass = findClass(implClassName, caller.lookupClass().getClassLoader());
+        if (implClass == null) implClass = findClass(implClassName, receiverClass.getClassLoader());
+        if (implClass == null) return CAST_FAILED.bindTo(trait);
+        try {
+            MethodHandle constructor = caller.findConstructor(implClass, MethodType.methodType(void.class, receiverClass));
+            return constructor.asType(genericType);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return CAST_FAILED.bindTo(trait);
+        }
+    }
+
+    private static Class<?> findClass(String name, ClassLoader classLoader) {
+        try {
+            return Class.forName(name, true, classLoader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Object fallback(InlineCacheCallSite callSite, Object receiver) throws Throwable {
+        if (receiver == null) return null;
+        Class<?> receiverClass = receiver.getClass();
+        MethodHandle implConstructor = callSite.implConstructors.get(receiverClass);
+        callSite.cache(receiverClass, implConstructor);
+        return implConstructor.invokeExact(receiver);
+    }
+
+    private static Object megamorphic(ClassValue<MethodHandle> implConstructors, Object receiver) throws Throwable {
+        if (receiver == null) return null;
+        return implConstructors.get(receiver.getClass()).invokeExact(receiver);
+    }
+
+    private static boolean isExactClass(Class<?> expected, Object receiver) {
+        return receiver != null && receiver.getClass() == expected;
+    }
+
+    private static Object castFailed(Class<?> trait, Object receiver) {
+        throw new ClassCastException(receiver.getClass().getName() + " does not implement trait " + trait.getName());
+    }
+
+    private static final class InlineCacheCallSite extends MutableCallSite {
+        //Receiver class -> impl constructor of type (Object)Object
+        private final ClassValue<MethodHandle> implConstructors;
+        private int depth = 0;
+
+        private InlineCacheCallSite(MethodHandles.Lookup caller, Class<?> trait, MethodType type) {
+            super(type);
+            this.implConstructors = new ClassValue<>() {
+                @Override
+                protected MethodHandle computeValue(Class<?> receiverClass) {
+                    return resolveImplConstructor(caller, trait, receiverClass);
+                }
+            };
+            setTarget(FALLBACK.bindTo(this).asType(type));
+        }
+
+        private synchronized void cache(Class<?> receiverClass, MethodHandle implConstructor) {
+            if (depth >= MAX_INLINE_CACHE_DEPTH) {
+                setTarget(MEGAMORPHIC.bindTo(implConstructors).asType(type()));
+                return;
+            }
+            //Prepend a guard for this receiver class, the old target stays as the slow path
+            MethodHandle guard = MethodHandles.guardWithTest(
+                    CLASS_CHECK.bindTo(receiverClass).asType(MethodType.methodType(boolean.class, type().parameterType(0))),
+                    implConstructor.asType(type()),
+                    getTarget());
+            setTarget(guard);
+            depth++;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package library;
+
+/**
+ * A library class whose constructor looks like a struct initializer but does more than assign its fields. Atypical
+ * identifiers cannot contain digits, so it lives outside of me.pr3 to be importable.
+ *
+ * @author tim
+ */
+public class LibraryPoint {
+    public int x;
+
+    public LibraryPoint(int x, Void unused) {
+        this.x = x * 2;
+    }
+}
@@ -0,0 +1,56 @@
+package me.pr3;
+
+import me.pr3.atypical.compiler.FileParser;
+import org.antlr.v4.runtime.CharStreams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Measures parse throughput in lines per second on the example/*.atp corpus, scaled up by parsing it many times.
+ * Usage: ParseBenchmark [corpus dir] [copies of the corpus per round] [rounds]
+ * Lives with the tests so it is not part of the compiler jar, run it with
+ * <code>mvn test-compile exec:java -Dexec.mainClass=me.pr3.ParseBenchmark -Dexec.classpathScope=test</code>
+ *
+ * @author tim
+ */
+public class ParseBenchmark {
+    public static void main(String[] args) throws IOException {
+        Path corpusDir = Path.of(args.length > 0 ? args[0] : "./example");
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        List<String> corpus = new ArrayList<>();
+        try (Stream<Path> files = Files.list(corpusDir)) {
+            for (Path file : files.filter(file -> file.toString().endsWith(".atp")).sorted().toList()) {
+                corpus.add(Files.readString(file));
+            }
+        }
+        long linesPerCopy = corpus.stream().mapToLong(source -> source.lines().count()).sum();
+        System.out.println("Corpus: " + corpus.size() + " files, " + linesPerCopy * copies + " lines per round");
+
+        run("LL", corpus, copies, rounds, linesPerCopy, source -> FileParser.parseLL(CharStreams.fromString(source)));
+        run("SLL/LL", corpus, copies, rounds, linesPerCopy, source -> FileParser.parse(CharStreams.fromString(source)));
+    }
+
+    private static void run(String name, List<String> corpus, int copies, int rounds, long linesPerCopy, Consumer<String> parser) {
+        //The first round warms up the JIT and the DFA cache
+        for (int round = 0; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (int copy = 0; copy < copies; copy++) {
+                for (String source : corpus) {
+                    parser.accept(source);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            if (round == 0) continue;
+            double linesPerSecond = linesPerCopy * copies / (nanos / 1_000_000_000.0);
+            System.out.printf("%-7s round %2d: %8.1f ms, %,12.0f lines/s%n", name, round, nanos / 1_000_000.0, linesPerSecond);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package me.pr3.atypical;
+
+import me.pr3.atypical.cli.Build;
+import me.pr3.atypical.compiler.StructureCompiler;
+import me.pr3.atypical.run.Runner;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles and runs the programs in example/ at every optimization level.
+ *
+ * @author tim
+ */
+public class ExamplesTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void linkedList(int level) throws IOException {
+        assertEquals("Hello\nWorld\nIm\nTim\n", run("LinkedList.atp", level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void forEach(int level) throws IOException {
+        assertEquals("First\nSecond\n10\n0\n1\n2\n", run("ForEach.atp", level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void mathExample(int level) throws IOException {
+        assertEquals("""
+                Hello
+                Welcome, Alice
+                Hello, Bob
+                Hello, Bob
+                Hello, Bob
+                Adding to cache...
+                Added Alice
+                Added Bob
+                Cache has multiple entries
+                First item in cache: Alice
+                Sum of 0..4: 10
+                Printing cache:
+                Alice
+                Alice
+                Bob
+                Cache cleared
+                """, run("MathExample.atp", level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void concat(int level) throws IOException {
+        assertEquals("Item: apple, count 3, each 0.5\nIn stock: true\n[0][1][2]\n", run("Concat.atp", level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void arrays(int level) throws IOException {
+        assertEquals("10\n", run("Arrays.atp", level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void traitWithManyParameters(int level) throws IOException {
+        assertEquals("", run("Input2.atp", level));
+    }
+
+    static String run(String example, int level) throws IOException {
+        Map<String, CharSequence> sources = Build.readSources(List.of(Path.of("example", example)));
+        Map<String, byte[]> classes = new StructureCompiler(sources, Programs.options(level)).compile();
+        return Programs.run(classes, Runner.findMainClass(sources, classes));
+    }
+}
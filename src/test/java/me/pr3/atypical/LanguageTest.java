@@ -0,0 +1,380 @@
+package me.pr3.atypical;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs small programs for every language feature at -O0, -O1 and -O2, all levels have to print the same.
+ *
+ * @author tim
+ */
+public class LanguageTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void numericPromotion(int level) {
+        String source = Programs.IMPORTS + """
+                sumTo(long: n): long {
+                    long: total = 0;
+                    long: i = 1;
+                    while (i < (n + 1)) {
+                        total = total + i;
+                        i = i + 1;
+                    }
+                    return total;
+                }
+
+                half(int: v): double {
+                    return v / 2.0;
+                }
+
+                main(String[]: args) {
+                    System.out.println(Test.sumTo(100000L));
+                    long: big = 3000000000L;
+                    System.out.println(big * 2);
+                    float: f = 1.25f;
+                    System.out.println(f * 4);
+                    System.out.println(Test.half(7));
+                    byte: b = 100;
+                    b = (byte) (b + 100);
+                    System.out.println(b);
+                    char: c = 65;
+                    System.out.println(c);
+                    System.out.println(c + 1);
+                    System.out.println((int) 7.9);
+                    System.out.println(10 % 3.5);
+                    double: nan = 0.0 / 0.0;
+                    if (nan != nan) { System.out.println("nan"); }
+                    if (nan == nan) { System.out.println("wrong"); }
+                }
+                """;
+        assertEquals("5000050000\n6000000000\n5.0\n3.5\n-56\nA\n66\n7\n3.0\nnan\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void narrowingAssignmentNeedsCast(int level) {
+        String source = Programs.IMPORTS + """
+                main(String[]: args) {
+                    long: big = 5;
+                    int: small = big;
+                }
+                """;
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Programs.compile(source, level));
+        assertTrue(e.getMessage().contains("without a cast"), e.getMessage());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void arrays(int level) {
+        String source = Programs.IMPORTS + """
+                checksum(byte[]: data): long {
+                    long: sum = 0;
+                    for (int: i in 0..data.length) {
+                        sum = (sum * 31) + data[i];
+                    }
+                    return sum;
+                }
+
+                main(String[]: args) {
+                    byte[]: data = byte[](100);
+                    for (int: i in 0..100) {
+                        data[i] = (byte) (i * 7);
+                    }
+                    System.out.println(Test.checksum(data));
+                    long[]: longs = long[]{1, 2L, 3};
+                    longs[1] = longs[0] + longs[2];
+                    System.out.println(longs[1]);
+                    char[]: chars = char[](2);
+                    chars[0] = 104;
+                    chars[1] = 105;
+                    System.out.println(chars);
+                    String[][]: grid = String[][](4);
+                    System.out.println(grid.length);
+                }
+                """;
+        long checksum = 0;
+        for (int i = 0; i < 100; i++) checksum = checksum * 31 + (byte) (i * 7);
+        assertEquals(checksum + "\n4\nhi\n4\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void loops(int level) {
+        String source = Programs.IMPORTS + """
+                countDown(int: n): int {
+                    int: steps = 0;
+                    for (int: i = n; i > 0; i--) {
+                        steps++;
+                    }
+                    return steps;
+                }
+
+                main(String[]: args) {
+                    System.out.println(Test.countDown(7));
+                    System.out.println(Test.countDown(0));
+                    long: total = 0;
+                    for (long: j in 5..3000000005L) {
+                        total = total + 1;
+                        j = j + 999999999;
+                    }
+                    System.out.println(total);
+                    int: empty = 0;
+                    for (int: k in 5..2) {
+                        empty++;
+                    }
+                    System.out.println(empty);
+                    int: n = 0;
+                    for (int: a in 0..3) {
+                        for (int: c in a..3) {
+                            n++;
+                        }
+                    }
+                    System.out.println(n);
+                    int: limit = 4;
+                    int: loops = 0;
+                    for (int: q in 0..limit) {
+                        limit = 0;
+                        loops++;
+                    }
+                    System.out.println(loops);
+                    int: x = 0;
+                    while (x < 3) {
+                        x = x + 1;
+                    }
+                    System.out.println(x);
+                }
+                """;
+        assertEquals("7\n0\n3\n0\n6\n4\n3\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void forEach(int level) {
+        String source = Programs.IMPORTS + """
+                trait Iterator {
+                    hasNext(): bool;
+                    next(): String;
+                }
+
+                trait Iterable {
+                    iterator(): Iterator;
+                }
+
+                columnar struct Point {
+                    int: x;
+                    int: y;
+                }
+
+                module Node {
+                    struct {
+                        Node: next;
+                        String: content;
+                    }
+                }
+
+                struct Chain {
+                    Node: head;
+                }
+
+                struct ChainIter {
+                    Node: current;
+                }
+
+                impl Iterator for ChainIter {
+                    next(): String {
+                        String: content = this.current.content;
+                        this.current = this.current.next;
+                        return content;
+                    }
+                    hasNext(): bool {
+                        return this.current != null;
+                    }
+                }
+
+                impl Iterable for Chain {
+                    iterator(): Iterator {
+                        return (Iterator)ChainIter{this.head};
+                    }
+                }
+
+                main(String[]: args) {
+                    Chain: chain = Chain{Node{Node{Node{null, "c"}, "b"}, "a"}};
+                    for (String: s in chain) {
+                        System.out.println(s);
+                    }
+                    int: total = 0;
+                    for (int: v in int[]{3, 4, 5}) {
+                        total = total + v;
+                    }
+                    System.out.println(total);
+                    Point[]: points = Point[]{Point{1, 2}, Point{3, 4}};
+                    for (Point: p in points) {
+                        System.out.println(p.x * p.y);
+                    }
+                }
+                """;
+        assertEquals("a\nb\nc\n12\n2\n12\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void inIsAContextualKeyword(int level) {
+        String source = Programs.IMPORTS + """
+                import java.io.InputStream as in;
+
+                struct Range {
+                    int: in;
+                }
+
+                sum(int[]: in): int {
+                    int: total = 0;
+                    for (int: x in in) {
+                        total = total + x;
+                    }
+                    return total;
+                }
+
+                main(String[]: args) {
+                    int: in = 3;
+                    in = in + 1;
+                    System.out.println(in);
+                    System.out.println(Test.sum(int[]{1, 2, 3}));
+                    for (int: i in 0..in) {
+                        System.out.print(i);
+                    }
+                    System.out.println(Range{7}.in);
+                    in: stream = System.in;
+                    System.out.println(stream != null);
+                }
+                """;
+        assertEquals("4\n6\n01237\ntrue\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void stringConcatenation(int level) {
+        String source = Programs.IMPORTS + """
+                label(int: n): String {
+                    return "#" + n;
+                }
+
+                main(String[]: args) {
+                    int: x = 7;
+                    long: big = 5000000000L;
+                    char: c = (char) 65;
+                    String: name = "tim";
+                    System.out.println("x=" + x + ", big=" + big + ", c=" + c);
+                    System.out.println(x + " is x");
+                    System.out.println("a" + "b" + "c");
+                    System.out.println("sum " + 1 + 2);
+                    System.out.println("n " + (x < 9) + " " + null + " " + 2.5f);
+                    System.out.println(name + ("[" + Test.label(x) + "]") + name.length());
+                    String: acc = "";
+                    for (int: i in 0..3) {
+                        acc = acc + i + ",";
+                    }
+                    System.out.println(acc);
+                    byte: by = (byte) 5;
+                    System.out.println("b=" + by + (2 < 1));
+                    System.out.println(1 + 2 + "x" + x - 2);
+                }
+                """;
+        assertEquals("x=7, big=5000000000, c=A\n7 is x\nabc\nsum 12\nn true null 2.5\ntim[#7]3\n0,1,2,\nb=5false\n12x5\n",
+                Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void columnarStructs(int level) {
+        String source = Programs.IMPORTS + """
+                columnar struct Point {
+                    int: x;
+                    int: y;
+                    bool: visible;
+                }
+
+                sum(Point[]: points, int: n): int {
+                    int: total = 0;
+                    for (int: i in 0..n) {
+                        if (points[i].visible) {
+                            total = total + (points[i].x * points[i].y);
+                        }
+                    }
+                    return total;
+                }
+
+                main(String[]: args) {
+                    Point[]: points = Point[]{Point{1, 2, (1 < 2)}, Point{3, 4, (2 < 1)}, Point{5, 6, (1 < 2)}};
+                    System.out.println(Test.sum(points, 3));
+                    points[1].visible = (1 < 2);
+                    points[0].x = 10;
+                    System.out.println(Test.sum(points, 3));
+                    Point: q = points[2];
+                    q.y = 100;
+                    System.out.println(points[2].y);
+                    points[2] = q;
+                    System.out.println(points[2].y);
+                    Point[]: zeroed = Point[](5);
+                    zeroed[4].x = 9;
+                    System.out.println(zeroed.length + zeroed[4].x);
+                }
+                """;
+        assertEquals("32\n62\n6\n100\n14\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void traitCasts(int level) {
+        String source = Programs.IMPORTS + """
+                trait Named {
+                    name(): String;
+                }
+                struct A { int: x; }
+                struct B { int: y; }
+                struct C { int: z; }
+                impl Named for A { name(): String { return "A"; } }
+                impl Named for B { name(): String { return "B " + this.y; } }
+
+                main(String[]: args) {
+                    obj: a = (obj)A{1};
+                    obj: b = (obj)B{2};
+                    System.out.println(((Named)a).name());
+                    System.out.println(((Named)b).name());
+                    Named: n = (Named)A{3};
+                    obj: again = (obj)n;
+                    System.out.println(((Named)again).name());
+                    System.out.println(B{4}.name());
+                    obj: c = (obj)C{3};
+                    Named: bad = (Named)c;
+                }
+                """;
+        AssertionError error = assertThrows(AssertionError.class, () -> Programs.run(source, level));
+        assertEquals("Program failed after printing: A\nB 2\nA\nB 4\n", error.getMessage().replace(System.lineSeparator(), "\n"));
+        assertEquals(ClassCastException.class, error.getCause().getClass());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void traitCastOfLibraryClass(int level) {
+        //Only structs of the program are checked at compile time, a library class goes through the dynamic lookup
+        String source = Programs.IMPORTS + """
+                trait Named {
+                    name(): String;
+                }
+
+                main(String[]: args) {
+                    String: s = "text";
+                    System.out.println(s);
+                    Named: n = (Named)s;
+                }
+                """;
+        AssertionError error = assertThrows(AssertionError.class, () -> Programs.run(source, level));
+        assertEquals("Program failed after printing: text\n", error.getMessage().replace(System.lineSeparator(), "\n"));
+        assertEquals(ClassCastException.class, error.getCause().getClass());
+    }
+}
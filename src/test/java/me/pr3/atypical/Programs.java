@@ -0,0 +1,64 @@
+package me.pr3.atypical;
+
+import me.pr3.atypical.compiler.CompilerOptions;
+import me.pr3.atypical.compiler.StructureCompiler;
+import me.pr3.atypical.run.Runner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Compiles Atypical snippets in memory and runs them with the output of System.out captured.
+ *
+ * @author tim
+ */
+public class Programs {
+
+    //Imported by most snippets, java.lang is not imported implicitly
+    public static final String IMPORTS = """
+            import java.lang.String as String;
+            import java.lang.System as System;
+            """;
+
+    public static CompilerOptions options(int optimizationLevel) {
+        CompilerOptions options = new CompilerOptions();
+        options.optimizationLevel = optimizationLevel;
+        return options;
+    }
+
+    /**
+     * Compiles the source as Test.atp, global methods end up in the class Test.
+     */
+    public static Map<String, byte[]> compile(String source, int optimizationLevel) {
+        return compile(Map.of("Test.atp", source), options(optimizationLevel));
+    }
+
+    public static Map<String, byte[]> compile(Map<String, String> sources, CompilerOptions options) {
+        return new StructureCompiler(sources, options).compile();
+    }
+
+    /**
+     * Compiles the source as Test.atp and runs its main method.
+     *
+     * @return everything the program printed, with \n line separators
+     */
+    public static String run(String source, int optimizationLevel) {
+        return run(compile(source, optimizationLevel), "Test");
+    }
+
+    public static String run(Map<String, byte[]> classes, String mainClass) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream previous = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            Runner.run(classes, mainClass, new String[0]);
+        } catch (Throwable e) {
+            throw new AssertionError("Program failed after printing: " + output.toString(StandardCharsets.UTF_8), e);
+        } finally {
+            System.setOut(previous);
+        }
+        return output.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+    }
+}
@@ -0,0 +1,151 @@
+package me.pr3.atypical.cli;
+
+import me.pr3.atypical.Programs;
+import me.pr3.atypical.compiler.incremental.BytecodeCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Full, incremental and cached builds through {@link Build#run}.
+ *
+ * @author tim
+ */
+public class BuildTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void incrementalBuildCompilesChangedAndDependentFiles() throws IOException {
+        Path sources = writeProgram();
+        Path output = directory.resolve("out");
+        BuildRequest request = new BuildRequest(List.of(sources), output, directory.resolve("state"), null, 0, 1);
+
+        assertTrue(Build.run(request).startsWith("Compiled 5 of 5 files"));
+        assertEquals("8\n8\n12\n", Programs.run(readClasses(output), "App"));
+        assertTrue(Build.run(request).startsWith("Compiled 0 of 5 files"));
+
+        //App calls Util.twice, Other is not affected
+        Files.writeString(sources.resolve("Util.atp"), "twice(int: x): int { return x * 2; }\n");
+        assertTrue(Build.run(request).startsWith("Compiled 2 of 5 files"));
+        assertEquals("8\n8\n8\n", Programs.run(readClasses(output), "App"));
+
+        Files.writeString(sources.resolve("Impls.atp"), """
+                impl Area for Rect { area(): int { return this.w * this.h; } }
+                impl Area for Sq { area(): int { return this.s * this.s; } }
+                """);
+        Build.run(request);
+        assertEquals("6\n6\n8\n", Programs.run(readClasses(output), "App"));
+
+        //Removing a file deletes its classes
+        Files.delete(sources.resolve("Other.atp"));
+        assertTrue(Build.run(request).startsWith("Compiled 0 of 4 files"));
+        assertFalse(Files.exists(output.resolve("Other.class")));
+    }
+
+    @Test
+    void bytecodeCacheIsUsedUntilADependencyChanges() throws IOException {
+        Path sources = writeProgram();
+        Path cache = directory.resolve("cache");
+        Build.run(new BuildRequest(List.of(sources), directory.resolve("first"), null, cache, 0, 1));
+        assertEquals("8\n8\n12\n", Programs.run(readClasses(directory.resolve("first")), "App"));
+
+        //Replace the cached App class, the next build has to take it from the cache instead of compiling App.atp
+        String key = BytecodeCache.key(Programs.options(0), "App.atp", Files.readString(sources.resolve("App.atp")));
+        BytecodeCache bytecodeCache = new BytecodeCache(cache);
+        BytecodeCache.Entry entry = bytecodeCache.load(key);
+        assertNotNull(entry);
+        byte[] marker = Programs.compile(Map.of("App.atp", Programs.IMPORTS + """
+                main(String[]: args){
+                    System.out.println("cached");
+                }
+                """), Programs.options(0)).get("App");
+        bytecodeCache.store(key, new BytecodeCache.Entry(entry.signatures(), Map.of("App", marker)));
+
+        Path second = directory.resolve("second");
+        Build.run(new BuildRequest(List.of(sources), second, null, cache, 0, 1));
+        assertEquals("cached\n", Programs.run(readClasses(second), "App"));
+
+        //Other options do not share entries
+        Path optimized = directory.resolve("optimized");
+        Build.run(new BuildRequest(List.of(sources), optimized, null, cache, 2, 1));
+        assertEquals("8\n8\n12\n", Programs.run(readClasses(optimized), "App"));
+
+        //App references Util, a new method there changes the signature App was compiled against
+        Files.writeString(sources.resolve("Util.atp"), """
+                twice(int: x): int { return x * 3; }
+                thrice(int: x): int { return x * 3; }
+                """);
+        Path third = directory.resolve("third");
+        Build.run(new BuildRequest(List.of(sources), third, null, cache, 0, 1));
+        assertEquals("8\n8\n12\n", Programs.run(readClasses(third), "App"));
+    }
+
+    @Test
+    void parallelBuildWritesTheSameClasses() throws IOException {
+        Path sources = writeProgram();
+        for (int level = 0; level <= 2; level++) {
+            Path serial = directory.resolve("serial" + level);
+            Path parallel = directory.resolve("parallel" + level);
+            Build.run(new BuildRequest(List.of(sources, Path.of("example", "MathExample.atp")), serial, null, null, level, 1));
+            Build.run(BuildRequest.parse(List.of("-j", "4", "-d", parallel.toString(), "-O" + level, sources.toString(),
+                    "example/MathExample.atp")));
+            Map<String, byte[]> expected = readClasses(serial);
+            Map<String, byte[]> actual = readClasses(parallel);
+            assertEquals(expected.keySet(), actual.keySet());
+            for (String className : expected.keySet()) {
+                assertArrayEquals(expected.get(className), actual.get(className), className);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> BuildRequest.parse(List.of("-j", "0")));
+    }
+
+    private Path writeProgram() throws IOException {
+        Path sources = Files.createDirectories(directory.resolve("src"));
+        Files.writeString(sources.resolve("Shapes.atp"), """
+                trait Area { area(): int; }
+                struct Rect { int: w; int: h; }
+                struct Sq { int: s; }
+                """);
+        Files.writeString(sources.resolve("Impls.atp"), """
+                impl Area for Rect { area(): int { return this.w * this.h + 1; } }
+                impl Area for Sq { area(): int { return this.s * this.s; } }
+                """);
+        Files.writeString(sources.resolve("Util.atp"), "twice(int: x): int { return x * 3; }\n");
+        Files.writeString(sources.resolve("Other.atp"), """
+                import java.lang.System as System;
+                hello(){ System.out.println("hey"); }
+                """);
+        Files.writeString(sources.resolve("App.atp"), Programs.IMPORTS + """
+                main(String[]: args){
+                    Rect: r = Rect{2, 3};
+                    System.out.println(r.area());
+                    obj: o = (obj)r;
+                    System.out.println(((Area)o).area());
+                    System.out.println(Util.twice(4));
+                }
+                """);
+        return sources;
+    }
+
+    static Map<String, byte[]> readClasses(Path output) throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        try (Stream<Path> files = Files.walk(output)) {
+            for (Path file : files.filter(file -> file.toString().endsWith(".class")).toList()) {
+                String name = output.relativize(file).toString().replace(java.io.File.separatorChar, '/');
+                classes.put(name.substring(0, name.length() - ".class".length()), Files.readAllBytes(file));
+            }
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,238 @@
+package me.pr3.atypical.compiler.optimizer;
+
+import me.pr3.atypical.Programs;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Map;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the optimizations apply and that the optimized programs still print the same.
+ *
+ * @author tim
+ */
+public class OptimizerTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void constantFolding(int level) {
+        String source = Programs.IMPORTS + """
+                seconds(): int {
+                    return 2 * 60 * 60;
+                }
+
+                main(String[]: args) {
+                    int: big = 100000 * 3;
+                    int: right = 10 - 4 - 3;
+                    int: z = 0;
+                    System.out.println(big + right);
+                    System.out.println(Test.seconds());
+                    System.out.println(5 / (z + 1));
+                }
+                """;
+        MethodNode seconds = getMethod(Programs.compile(source, level), "Test", "seconds");
+        assertFalse(contains(seconds, Opcodes.IMUL));
+        assertTrue(stream(seconds).anyMatch(insn -> insn instanceof IntInsnNode push && push.operand == 7200));
+        //Right associative like every operator: 10 - (4 - 3)
+        assertEquals("300009\n7200\n5\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void floatComparisonFolding(int level) {
+        //16777217 is not a float, converted to one it rounds to 16777216f
+        String source = Programs.IMPORTS + """
+                intFloat(): bool {
+                    return 16777217 == 16777216f;
+                }
+
+                longFloat(): bool {
+                    return 16777217L == 16777216f;
+                }
+
+                above(): bool {
+                    return 16777217 > 16777216f;
+                }
+
+                equal(float: a, float: b): bool {
+                    return a == b;
+                }
+
+                main(String[]: args) {
+                    System.out.println(Test.intFloat());
+                    System.out.println(Test.longFloat());
+                    System.out.println(Test.above());
+                    System.out.println(Test.equal(16777217, 16777216f));
+                }
+                """;
+        Map<String, byte[]> classes = Programs.compile(source, level);
+        for (String method : new String[]{"intFloat", "longFloat", "above"}) {
+            assertFalse(contains(getMethod(classes, "Test", method), Opcodes.FCMPL), method);
+        }
+        assertEquals("true\ntrue\nfalse\ntrue\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void shortCircuit(int level) {
+        String source = Programs.IMPORTS + """
+                module Box {
+                    struct {
+                        int: v;
+                        Box: next;
+                    }
+                }
+
+                check(String: label, bool: value): bool {
+                    System.out.println(label);
+                    return value;
+                }
+
+                main(String[]: args) {
+                    Box: b = (Box)null;
+                    if ((b != null) && (b.v > 0)) {
+                        System.out.println("wrong");
+                    } else if ((b == null) || (b.v > 0)) {
+                        System.out.println("null box");
+                    }
+                    bool: both = (Test.check("a", 0 < 1)) && (Test.check("b", 1 < 0));
+                    bool: either = (Test.check("c", 0 < 1)) || (Test.check("never", 1 < 0));
+                    bool: neither = (Test.check("d", 1 < 0)) && (Test.check("never", 1 < 0));
+                    if ((neither) || ((either) && (both == neither))) {
+                        System.out.println("nested");
+                    }
+                }
+                """;
+        assertEquals("null box\na\nb\nc\nd\nnested\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void peepholeReplacesStoreLoads(int level) {
+        String source = Programs.IMPORTS + """
+                scale(int: a): int {
+                    int: t = a * 3;
+                    return t + 1;
+                }
+
+                main(String[]: args) {
+                    System.out.println(Test.scale(4));
+                }
+                """;
+        MethodNode scale = getMethod(Programs.compile(source, level), "Test", "scale");
+        assertEquals(level >= 2, contains(scale, Opcodes.DUP));
+        assertEquals(level < 2 ? 2 : 1, count(scale, Opcodes.ILOAD));
+        assertEquals("13\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void scalarReplacement(int level) {
+        String source = Programs.IMPORTS + """
+                struct Vec {
+                    int: x;
+                    int: y;
+                }
+
+                lengthSq(int: x, int: y): int {
+                    Vec: v = Vec{x, y};
+                    return (v.x * v.x) + (v.y * v.y);
+                }
+
+                escapes(int: x): Vec {
+                    Vec: v = Vec{x, x + 1};
+                    return v;
+                }
+
+                main(String[]: args) {
+                    System.out.println(Test.lengthSq(3, 4));
+                    System.out.println(Test.escapes(7).y);
+                }
+                """;
+        Map<String, byte[]> classes = Programs.compile(source, level);
+        assertEquals(level < 2, contains(getMethod(classes, "Test", "lengthSq"), Opcodes.NEW));
+        assertTrue(contains(getMethod(classes, "Test", "escapes"), Opcodes.NEW));
+        assertEquals("25\n8\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void scalarReplacementKeepsLibraryClasses(int level) {
+        String source = Programs.IMPORTS + """
+                import library.LibraryPoint as LibraryPoint;
+
+                doubled(int: x): int {
+                    LibraryPoint: p = LibraryPoint{x};
+                    return p.x;
+                }
+
+                main(String[]: args) {
+                    System.out.println(Test.doubled(4));
+                }
+                """;
+        assertTrue(contains(getMethod(Programs.compile(source, level), "Test", "doubled"), Opcodes.NEW));
+        assertEquals("8\n", Programs.run(source, level));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2})
+    void inlining(int level) {
+        String source = Programs.IMPORTS + """
+                square(int: x): int {
+                    return x * x;
+                }
+
+                sumSquares(int: a, int: b): int {
+                    return Test.square(a) + Test.square(b);
+                }
+
+                fact(int: n): int {
+                    if (n < 2) {
+                        return 1;
+                    }
+                    return n * Test.fact(n - 1);
+                }
+
+                main(String[]: args) {
+                    System.out.println(Test.sumSquares(3, 4));
+                    System.out.println(Test.fact(5));
+                }
+                """;
+        Map<String, byte[]> classes = Programs.compile(source, level);
+        assertEquals(level < 2, calls(getMethod(classes, "Test", "sumSquares"), "square"));
+        assertTrue(calls(getMethod(classes, "Test", "fact"), "fact"));
+        assertEquals("25\n120\n", Programs.run(source, level));
+    }
+
+    static MethodNode getMethod(Map<String, byte[]> classes, String className, String methodName) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classes.get(className)).accept(classNode, 0);
+        return classNode.methods.stream().filter(method -> method.name.equals(methodName)).findFirst().orElseThrow();
+    }
+
+    static java.util.stream.Stream<AbstractInsnNode> stream(MethodNode methodNode) {
+        return StreamSupport.stream(methodNode.instructions.spliterator(), false);
+    }
+
+    static boolean contains(MethodNode methodNode, int opcode) {
+        return count(methodNode, opcode) > 0;
+    }
+
+    static long count(MethodNode methodNode, int opcode) {
+        return stream(methodNode).filter(insn -> insn.getOpcode() == opcode).count();
+    }
+
+    static boolean calls(MethodNode methodNode, String methodName) {
+        return stream(methodNode).anyMatch(insn -> insn instanceof MethodInsnNode call && call.name.equals(methodName));
+    }
+}
@@ -0,0 +1,107 @@
+package me.pr3.atypical.daemon;
+
+import me.pr3.atypical.Programs;
+import me.pr3.atypical.cli.BuildRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a {@link CompileDaemon} on a socket in a temporary directory and talks to it through {@link DaemonClient}.
+ *
+ * @author tim
+ */
+public class CompileDaemonTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void buildsWhileAnotherClientIsIdle() throws Exception {
+        //Clients that close their connection early are not daemon failures, nothing may be reported
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream previousErr = System.err;
+        System.setErr(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        try {
+            runDaemon();
+        } finally {
+            System.setErr(previousErr);
+        }
+        assertEquals("", errors.toString(StandardCharsets.UTF_8));
+    }
+
+    private void runDaemon() throws Exception {
+        DaemonAddress address = new DaemonAddress(directory.resolve("daemon.sock"));
+        Thread daemon = new Thread(() -> {
+            try {
+                new CompileDaemon(address).run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        daemon.setDaemon(true);
+        daemon.start();
+
+        Path source = directory.resolve("App.atp");
+        Files.writeString(source, Programs.IMPORTS + """
+                main(String[]: args){
+                    System.out.println("hi");
+                }
+                """);
+        Path output = directory.resolve("out");
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            awaitStart(address);
+            //Never sends a request, the daemon has to answer the other clients anyway
+            try (SocketChannel idle = address.connect()) {
+                assertTrue(DaemonClient.send(address, List.of("status")).ok());
+                //Closed without sending anything, like a check whether the daemon is up
+                address.connect().close();
+
+                List<String> build = new ArrayList<>(List.of("build"));
+                build.addAll(new BuildRequest(List.of(source), output, null, null, 2, 1).toArguments());
+                CompileDaemon.Response response = DaemonClient.send(address, build);
+                assertTrue(response.ok(), response.message());
+                assertTrue(response.message().startsWith("Compiled 1 of 1 files"), response.message());
+                assertTrue(Files.exists(output.resolve("App.class")));
+
+                response = DaemonClient.send(address, List.of("build", "-d", output.toString(), directory.resolve("Missing.atp").toString()));
+                assertFalse(response.ok());
+                assertTrue(response.message().contains("Missing.atp"), response.message());
+
+                response = DaemonClient.send(address, List.of("restart"));
+                assertEquals(new CompileDaemon.Response(false, "java.lang.IllegalArgumentException: Unknown command: restart"), response);
+            }
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(address.path()));
+
+            assertEquals(new CompileDaemon.Response(true, "Daemon stopped"), DaemonClient.send(address, List.of("shutdown")));
+            daemon.join();
+        });
+        assertFalse(Files.exists(address.path()));
+    }
+
+    private static void awaitStart(DaemonAddress address) throws InterruptedException {
+        while (true) {
+            try {
+                DaemonClient.send(address, List.of("status"));
+                return;
+            } catch (IOException e) {
+                //No socket or not listening yet
+                Thread.sleep(10);
+            }
+        }
+    }
+}
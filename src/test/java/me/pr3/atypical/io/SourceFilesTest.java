@@ -0,0 +1,47 @@
+package me.pr3.atypical.io;
+
+import me.pr3.atypical.Programs;
+import me.pr3.atypical.compiler.FileParser;
+import me.pr3.atypical.compiler.StructureCompiler;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author tim
+ */
+public class SourceFilesTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void mappedSourceIsLexedByCodePoint() throws IOException {
+        //U+1F600 is outside of the BMP, a surrogate pair in UTF-16
+        String source = Programs.IMPORTS + """
+                main(String[]: args){
+                    System.out.println("a😀b");
+                }
+                """;
+        Path file = Files.writeString(directory.resolve("Test.atp"), source);
+        CharStream mapped = FileParser.toCharStream("Test.atp", SourceFiles.read(file));
+        CharStream expected = CharStreams.fromString(source, "Test.atp");
+        assertEquals(expected.size(), mapped.size());
+        for (int i = 1; i <= expected.size(); i++) {
+            assertEquals(expected.LA(1), mapped.LA(1), "code point " + i);
+            expected.consume();
+            mapped.consume();
+        }
+
+        Map<String, byte[]> classes = new StructureCompiler(Map.of("Test.atp", SourceFiles.read(file))).compile();
+        assertEquals("a😀b\n", Programs.run(classes, "Test"));
+    }
+}
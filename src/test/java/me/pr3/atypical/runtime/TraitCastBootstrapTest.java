@@ -0,0 +1,57 @@
+package me.pr3.atypical.runtime;
+
+import me.pr3.atypical.Programs;
+import me.pr3.atypical.run.InMemoryClassLoader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author tim
+ */
+public class TraitCastBootstrapTest {
+
+    @Test
+    void implDefinedByAChildLoaderOfTheTrait() throws Exception {
+        Map<String, byte[]> classes = Programs.compile(Programs.IMPORTS + """
+                trait Named {
+                    name(): String;
+                }
+                struct A { int: x; }
+                struct B { int: y; }
+                impl Named for A { name(): String { return "A"; } }
+                impl Named for B { name(): String { return "B"; } }
+
+                main(String[]: args) {
+                    obj: a = (obj)A{1};
+                    System.out.println(((Named)a).name());
+                    obj: b = (obj)B{2};
+                    System.out.println(((Named)b).name());
+                }
+                """, 0);
+        //Like the REPL: the trait and the structs were defined by an earlier input, the impls and the cast by a later one
+        Map<String, byte[]> parentClasses = new HashMap<>();
+        for (String className : Set.of("Named", "A", "B")) {
+            parentClasses.put(className, classes.remove(className));
+        }
+        ClassLoader parent = new InMemoryClassLoader(parentClasses, getClass().getClassLoader());
+        ClassLoader child = new InMemoryClassLoader(classes, parent);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream previous = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            child.loadClass("Test").getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } finally {
+            System.setOut(previous);
+        }
+        assertEquals("A\nB\n", output.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n"));
+    }
+}